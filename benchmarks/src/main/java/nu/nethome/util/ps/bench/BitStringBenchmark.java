@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.BitString;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the BitString operations decoders use to collect and unpack message bits.
+ * Scores are bits (or fields) per microsecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BitStringBenchmark {
+
+    static final int BITS = 64;
+
+    private static final BitString.Field FIELDS[] = {
+            new BitString.Field(0, 8),
+            new BitString.Field(8, 16),
+            new BitString.Field(24, 4),
+            new BitString.Field(28, 32)};
+
+    private BitString bits;
+    private long pattern;
+
+    @Setup
+    public void setUp() {
+        bits = new BitString(0x123456789ABCDEF0L, BITS);
+        pattern = 0x0F1E2D3C4B5A6978L;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BITS)
+    public BitString addLsb() {
+        BitString result = new BitString();
+        for (int i = 0; i < BITS; i++) {
+            result.addLsb(((pattern >> i) & 1) == 1);
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BITS)
+    public int getBit() {
+        int count = 0;
+        for (int i = 0; i < BITS; i++) {
+            if (bits.getBit(i)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(4)
+    public int extractAndInsert() {
+        int sum = 0;
+        for (BitString.Field field : FIELDS) {
+            int value = bits.extractInt(field);
+            bits.insert(field, value);
+            sum += value;
+        }
+        return sum;
+    }
+}
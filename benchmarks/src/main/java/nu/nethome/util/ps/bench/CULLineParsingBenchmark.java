@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.impl.CULProtocolPort;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast CULProtocolPort parses the pulse lines received from a CUL device and hands the
+ * pulses to a decoder. The serial port is replaced by an in memory stream. Scores are pulses
+ * per millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CULLineParsingBenchmark {
+
+    static final int PULSES = 1000;
+
+    /**
+     * A CULProtocolPort reading from a byte array instead of a serial port
+     */
+    static class InMemoryCULPort extends CULProtocolPort {
+        private final ByteArrayInputStream input;
+
+        InMemoryCULPort(SyntheticDecoder decoder, byte[] data) {
+            super(decoder);
+            input = new ByteArrayInputStream(data);
+            m_InputStream = input;
+        }
+
+        void receiveAll() {
+            input.reset();
+            readReceivedData();
+        }
+    }
+
+    private InMemoryCULPort port;
+    private CountingSink sink;
+
+    @Setup
+    public void setUp() {
+        sink = new CountingSink();
+        SyntheticDecoder decoder = new SyntheticDecoder(0);
+        decoder.setTarget(sink);
+        port = new InMemoryCULPort(decoder, SyntheticSignals.culLines(PULSES));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PULSES)
+    public int parseLines() {
+        port.receiveAll();
+        return sink.messages;
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+
+/**
+ * A ProtocolDecoderSink which just counts what it receives
+ */
+public class CountingSink implements ProtocolDecoderSink {
+    public int messages = 0;
+    public int partial = 0;
+    public int level = 0;
+
+    public void parsedMessage(ProtocolMessage message) {
+        messages++;
+    }
+
+    public void partiallyParsedMessage(String protocol, int bits) {
+        partial++;
+    }
+
+    public void reportLevel(int level) {
+        this.level = level;
+    }
+}
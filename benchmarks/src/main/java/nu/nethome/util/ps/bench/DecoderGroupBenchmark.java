@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.impl.ProtocolDecoderGroup;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many pulses per millisecond a ProtocolDecoderGroup can dispatch with different
+ * number of decoders, with and without declared start pulses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecoderGroupBenchmark {
+
+    static final int PULSES = 1000;
+
+    @Param({"1", "10", "50"})
+    public int decoders;
+
+    @Param({"false", "true"})
+    public boolean startPulses;
+
+    private int pulses[];
+    private ProtocolDecoderGroup group;
+
+    @Setup
+    public void setUp() {
+        pulses = SyntheticSignals.pulses(PULSES);
+        group = new ProtocolDecoderGroup();
+        for (int i = 0; i < decoders; i++) {
+            group.add(new SyntheticDecoder(i * 10, startPulses));
+        }
+        group.setTarget(new CountingSink());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PULSES)
+    public int parse() {
+        int result = 0;
+        boolean mark = true;
+        for (int pulse : pulses) {
+            result += group.parse(pulse, mark);
+            mark = !mark;
+        }
+        return result;
+    }
+}
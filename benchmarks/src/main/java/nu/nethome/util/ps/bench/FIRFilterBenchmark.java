@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.impl.FIRFilter6000;
+import nu.nethome.util.ps.impl.ProtocolSampler;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the original shifting FIR filter with the delay line based FIRFilter engine.
+ * Scores are samples per millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FIRFilterBenchmark {
+
+    static final int BLOCK = 4096;
+
+    private int samples[];
+    private int filtered[];
+    private LegacyFIRFilter6000 legacy;
+    private FIRFilter6000 filter;
+
+    @Setup
+    public void setUp() {
+        samples = SyntheticSignals.samples(BLOCK);
+        filtered = new int[BLOCK];
+        legacy = new LegacyFIRFilter6000();
+        filter = new FIRFilter6000(new ProtocolSampler() {
+            public void addSample(int sample) {
+            }
+
+            public void setSampleRate(int frequency) {
+            }
+        });
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public void legacyShiftLoop(Blackhole blackhole) {
+        for (int sample : samples) {
+            blackhole.consume(legacy.filter(sample));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public void delayLine(Blackhole blackhole) {
+        for (int sample : samples) {
+            blackhole.consume(filter.filter(sample));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public void addSample() {
+        for (int sample : samples) {
+            filter.addSample(sample);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK)
+    public int[] delayLineBlock() {
+        filter.filter(samples, 0, filtered, 0, BLOCK);
+        return filtered;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.impl.SimpleFlankDetector;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how many samples per millisecond the SimpleFlankDetector can process, feeding
+ * the detected pulses to a typical decoder. Scores are samples per millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FlankDetectorBenchmark {
+
+    static final int BLOCK = 4096;
+
+    private int samples[];
+    private SimpleFlankDetector detector;
+    private CountingSink sink;
+
+    @Setup
+    public void setUp() {
+        samples = SyntheticSignals.samples(BLOCK * 16);
+        sink = new CountingSink();
+        SyntheticDecoder decoder = new SyntheticDecoder(0);
+        decoder.setTarget(sink);
+        detector = new SimpleFlankDetector();
+        detector.setSampleRate(SyntheticSignals.SAMPLE_RATE);
+        detector.setProtocolDecoder(decoder);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK * 16)
+    public int addSample() {
+        for (int sample : samples) {
+            detector.addSample(sample);
+        }
+        return sink.messages;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK * 16)
+    public int addSamples() {
+        for (int i = 0; i < samples.length; i += BLOCK) {
+            detector.addSamples(samples, i, BLOCK);
+        }
+        return sink.messages;
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+/**
+ * The original FIRFilter6000 implementation, which shifts the sample history one step
+ * for every sample and divides by the DC gain. Kept as baseline for comparison.
+ */
+public class LegacyFIRFilter6000 {
+    static final int Ntap = 20;
+    static final int DCgain = 65536;
+    final int FIRCoef[] = {
+            2182, 1189, -1005, -3140, -3586, -1227, 3810, 10027, 15137, 17110,
+            15137, 10027, 3810, -1227, -3586, -3140, -1005, 1189, 2182, 1650
+    };
+
+    private int x[] = new int[Ntap];
+
+    public int filter(int NewSample) {
+        int y = 0;
+        int n;
+
+        for (n = Ntap - 1; n > 0; n--)
+            x[n] = x[n - 1];
+
+        x[0] = NewSample;
+        for (n = 0; n < Ntap; n++)
+            y += FIRCoef[n] * x[n];
+
+        return y / DCgain;
+    }
+}
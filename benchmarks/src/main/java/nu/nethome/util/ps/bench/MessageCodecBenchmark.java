@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares archiving messages with MessageWriter/MessageReader against Java serialization. The encoded
+ * sizes are printed at setup. "decoded" is a batch of decoded messages with fields, "raw" is one raw
+ * message of 800 ms at 44.1 kHz as reported by RawDecoder and "legacyRaw" the same message built from
+ * boxed lists, as RawDecoder did before. Scores are message batches per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageCodecBenchmark {
+
+    static final int DECODED_MESSAGES = 100;
+    static final int RAW_SAMPLES = 35280;
+
+    @Param({"decoded", "raw", "legacyRaw"})
+    public String kind;
+
+    private List<ProtocolMessage> messages;
+    private ByteArrayOutputStream out;
+    private byte compact[];
+    private byte serialized[];
+
+    @Setup
+    public void setUp() throws IOException, ClassNotFoundException {
+        messages = new ArrayList<ProtocolMessage>();
+        if (kind.equals("decoded")) {
+            String protocols[] = {"Nexa", "UPM", "Oregon", "Waveman"};
+            for (int i = 0; i < DECODED_MESSAGES; i++) {
+                ProtocolMessage message = new ProtocolMessage(protocols[i % protocols.length], i % 2, i * 17, 4);
+                message.setInterpretation(i % 2 == 0 ? "On" : "Off");
+                message.addField(new FieldValue("Address", i * 17));
+                message.addField(new FieldValue("Button", i % 4));
+                message.addField(new FieldValue("Command", i % 2));
+                messages.add(message);
+            }
+        } else {
+            messages.add(rawMessage(kind.equals("legacyRaw")));
+        }
+        out = new ByteArrayOutputStream();
+        compact = writeCompact();
+        serialized = writeJava();
+        System.out.println();
+        System.out.println(kind + ": compact " + compact.length + " bytes, serialized " + serialized.length + " bytes");
+    }
+
+    private static RawProtocolMessage rawMessage(boolean legacy) {
+        int samples[] = SyntheticSignals.samples(RAW_SAMPLES);
+        int pulses[] = SyntheticSignals.pulses(RAW_SAMPLES / 10);
+        int positions[] = new int[1000];
+        double lengths[] = new double[positions.length];
+        int position = 0;
+        for (int i = 0; i < positions.length; i++) {
+            lengths[i] = pulses[i] * 1.0007;
+            position += pulses[i] * SyntheticSignals.SAMPLE_RATE / 1000000;
+            positions[i] = position;
+        }
+        if (legacy) {
+            List<Integer> positionList = new LinkedList<Integer>();
+            List<Integer> sampleList = new ArrayList<Integer>();
+            LinkedList<Double> lengthList = new LinkedList<Double>();
+            for (int i = 0; i < positions.length; i++) {
+                positionList.add(positions[i]);
+                lengthList.add(lengths[i]);
+            }
+            for (int sample : samples) {
+                sampleList.add(sample);
+            }
+            return new RawProtocolMessage(positionList, sampleList, SyntheticSignals.SAMPLE_RATE, lengthList);
+        }
+        short shortSamples[] = new short[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            shortSamples[i] = (short) samples[i];
+        }
+        return new RawProtocolMessage(positions, lengths, new SampleWindow(shortSamples), SyntheticSignals.SAMPLE_RATE);
+    }
+
+    @Benchmark
+    public byte[] writeCompact() throws IOException {
+        out.reset();
+        MessageWriter writer = new MessageWriter(Channels.newChannel(out));
+        for (ProtocolMessage message : messages) {
+            writer.write(message);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writeJava() throws IOException {
+        out.reset();
+        ObjectOutputStream writer = new ObjectOutputStream(out);
+        for (ProtocolMessage message : messages) {
+            writer.writeObject(message);
+        }
+        writer.close();
+        return out.toByteArray();
+    }
+
+    @Benchmark
+    public int readCompact() throws IOException {
+        MessageReader reader = new MessageReader(Channels.newChannel(new ByteArrayInputStream(compact)));
+        int count = 0;
+        while (reader.read() != null) {
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int readJava() throws IOException, ClassNotFoundException {
+        ObjectInputStream reader = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        int count = 0;
+        for (int i = 0; i < messages.size(); i++) {
+            if (reader.readObject() != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.BadMessageException;
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.MessageRepeater;
+import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.PulseSequence;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding and repeating a message, as done before every transmission.
+ * Scores are complete repeated sequences per millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageRepeaterBenchmark {
+
+    @Param({"5", "20", "50"})
+    public int repeat;
+
+    private SyntheticEncoder encoder;
+    private ProtocolMessage message;
+
+    @Setup
+    public void setUp() {
+        encoder = new SyntheticEncoder();
+        message = new ProtocolMessage("Synthetic", 0, 0, 0);
+        message.addField(new FieldValue("Data", 0xA5C3F0));
+    }
+
+    @Benchmark
+    public int[] repeat() throws BadMessageException {
+        return MessageRepeater.repeat(encoder, message, repeat);
+    }
+
+    @Benchmark
+    public PulseSequence sequence() throws BadMessageException {
+        return MessageRepeater.sequence(encoder, message, repeat);
+    }
+}
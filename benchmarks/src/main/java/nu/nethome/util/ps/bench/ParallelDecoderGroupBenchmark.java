@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.impl.ParallelProtocolDecoderGroup;
+import nu.nethome.util.ps.impl.ProtocolDecoderGroup;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the serial ProtocolDecoderGroup with the ParallelProtocolDecoderGroup using a large
+ * number of decoders. Run with different values of threads to see how the parallel group scales.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParallelDecoderGroupBenchmark {
+
+    static final int PULSES = 8192;
+
+    @Param({"200"})
+    public int decoders;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private int pulses[];
+    private ProtocolDecoderGroup serialGroup;
+    private ParallelProtocolDecoderGroup parallelGroup;
+
+    @Setup
+    public void setUp() {
+        pulses = SyntheticSignals.pulses(PULSES);
+        serialGroup = new ProtocolDecoderGroup();
+        parallelGroup = new ParallelProtocolDecoderGroup(threads, ParallelProtocolDecoderGroup.DEFAULT_CHUNK_SIZE);
+        for (int i = 0; i < decoders; i++) {
+            serialGroup.add(new SyntheticDecoder(i * 10));
+            parallelGroup.add(new SyntheticDecoder(i * 10));
+        }
+        serialGroup.setTarget(new CountingSink());
+        parallelGroup.setTarget(new CountingSink());
+    }
+
+    @TearDown
+    public void tearDown() {
+        parallelGroup.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PULSES)
+    public int serial() {
+        int result = 0;
+        boolean mark = true;
+        for (int pulse : pulses) {
+            result += serialGroup.parse(pulse, mark);
+            mark = !mark;
+        }
+        return result;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PULSES)
+    public void parallel() {
+        boolean mark = true;
+        for (int pulse : pulses) {
+            parallelGroup.parse(pulse, mark);
+            mark = !mark;
+        }
+        parallelGroup.flush();
+    }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.impl.PulseLengthAnalyzer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast the PulseLengthAnalyzer groups the pulses of a typical captured message.
+ * Scores are pulses per millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PulseLengthAnalyzerBenchmark {
+
+    static final int PULSES = 200;
+
+    private int pulses[];
+
+    @Setup
+    public void setUp() {
+        pulses = SyntheticSignals.pulses(PULSES);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PULSES)
+    public PulseLengthAnalyzer addPulse() {
+        PulseLengthAnalyzer analyzer = new PulseLengthAnalyzer();
+        boolean mark = true;
+        for (int pulse : pulses) {
+            analyzer.addPulse(pulse, mark);
+            mark = !mark;
+        }
+        return analyzer;
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.PulseSequence;
+import nu.nethome.util.ps.impl.PulseRenderer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures rendering a repeated message to audio samples, as AudioPulsePlayer does while playing.
+ * Scores are complete rendered messages per millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PulseRendererBenchmark {
+
+    static final int CHUNK_SIZE = 4096;
+
+    private PulseSequence sequence;
+    private PulseRenderer renderer;
+    private byte[] chunk;
+    private ByteBuffer directChunk;
+
+    @Setup
+    public void setUp() {
+        int message[] = new int[50];
+        for (int i = 0; i < message.length; i++) {
+            message[i] = (i % 4 == 1) ? 1100 : 300;
+        }
+        message[message.length - 1] = 10000;
+        sequence = new PulseSequence(new int[0], message, 5);
+        renderer = new PulseRenderer(44100.0F, 100);
+        chunk = new byte[CHUNK_SIZE];
+        directChunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+    }
+
+    @Benchmark
+    public int renderArray() {
+        renderer.start(sequence);
+        int total = 0;
+        int length;
+        while ((length = renderer.render(chunk, 0, CHUNK_SIZE)) > 0) {
+            total += length;
+        }
+        return total;
+    }
+
+    @Benchmark
+    public int renderDirectBuffer() {
+        renderer.start(sequence);
+        int total = 0;
+        int length;
+        do {
+            directChunk.clear();
+            length = renderer.render(directChunk);
+            total += length;
+        } while (length > 0);
+        return total;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.impl.ProtocolSamplerGroup;
+import nu.nethome.util.ps.impl.RawDecoder;
+import nu.nethome.util.ps.impl.SimpleFlankDetector;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the raw capture path, where a RawDecoder both samples the signal and gets the pulses from
+ * a SimpleFlankDetector, the same way the audio port sets it up, with and without pre-trigger history.
+ * Scores are samples per millisecond.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RawDecoderBenchmark {
+
+    static final int SAMPLES = 65536;
+
+    @Param({"0", "50"})
+    public int preTriggerTime;
+
+    private int samples[];
+    private ProtocolSamplerGroup samplers;
+    private CountingSink sink;
+
+    @Setup
+    public void setUp() {
+        samples = SyntheticSignals.samples(SAMPLES);
+        sink = new CountingSink();
+        RawDecoder rawDecoder = new RawDecoder();
+        rawDecoder.setTarget(sink);
+        rawDecoder.setPreTriggerTime(preTriggerTime);
+        SimpleFlankDetector detector = new SimpleFlankDetector();
+        detector.setProtocolDecoder(rawDecoder);
+        samplers = new ProtocolSamplerGroup();
+        samplers.add(detector);
+        samplers.add(rawDecoder);
+        samplers.setSampleRate(SyntheticSignals.SAMPLE_RATE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SAMPLES)
+    public int capture() {
+        for (int sample : samples) {
+            samplers.addSample(sample);
+        }
+        return sink.messages;
+    }
+}
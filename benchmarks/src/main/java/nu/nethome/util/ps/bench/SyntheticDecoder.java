@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.StartPulse;
+
+/**
+ * A decoder with a state machine typical for simple pulse length protocols. It waits for a
+ * long space as start pulse and then collects bits encoded as short/long marks until a
+ * message is complete. The pulse lengths it accepts are shifted with an offset, so a group
+ * of these behaves like a group of different real decoders. Optionally the decoder declares its
+ * start pulse in the ProtocolInfo.
+ */
+public class SyntheticDecoder implements ProtocolDecoder {
+
+    private static final int IDLE = 0;
+    private static final int READING = 1;
+    private static final int MESSAGE_BITS = 24;
+
+    private final int startLength;
+    private final int shortMark;
+    private final int longMark;
+    private final boolean declareStartPulse;
+    private ProtocolDecoderSink sink;
+    private int state = IDLE;
+    private int bits = 0;
+    private int data = 0;
+
+    /**
+     * @param offset how much the accepted pulse lengths are shifted in micro seconds
+     */
+    public SyntheticDecoder(int offset) {
+        this(offset, false);
+    }
+
+    /**
+     * @param offset            how much the accepted pulse lengths are shifted in micro seconds
+     * @param declareStartPulse true if the start pulse shall be declared in the ProtocolInfo
+     */
+    public SyntheticDecoder(int offset, boolean declareStartPulse) {
+        this.declareStartPulse = declareStartPulse;
+        startLength = 10000 + offset;
+        shortMark = 375 + offset;
+        longMark = 1125 + offset;
+    }
+
+    public int parse(double pulseLength, boolean isMark) {
+        switch (state) {
+            case IDLE:
+                if (!isMark && matches(pulseLength, startLength, 2000)) {
+                    state = READING;
+                    bits = 0;
+                    data = 0;
+                }
+                break;
+            case READING:
+                if (!isMark) {
+                    break;
+                }
+                if (matches(pulseLength, shortMark, 150)) {
+                    data <<= 1;
+                } else if (matches(pulseLength, longMark, 150)) {
+                    data = (data << 1) | 1;
+                } else {
+                    state = IDLE;
+                    break;
+                }
+                if (++bits == MESSAGE_BITS) {
+                    if (sink != null) {
+                        sink.parsedMessage(new ProtocolMessage("Synthetic", data, 0, 0));
+                    }
+                    state = IDLE;
+                }
+                break;
+        }
+        return state;
+    }
+
+    private static boolean matches(double pulse, int length, int tolerance) {
+        return pulse >= length - tolerance && pulse <= length + tolerance;
+    }
+
+    public ProtocolInfo getInfo() {
+        ProtocolInfo info = new ProtocolInfo("Synthetic", "Mark Length", "-", MESSAGE_BITS, 1);
+        if (declareStartPulse) {
+            info.addStartPulse(new StartPulse(startLength - 2000, startLength + 2000, false));
+        }
+        return info;
+    }
+
+    public void setTarget(ProtocolDecoderSink sink) {
+        this.sink = sink;
+    }
+}
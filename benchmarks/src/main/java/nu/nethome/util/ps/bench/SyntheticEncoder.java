@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import nu.nethome.util.ps.BadMessageException;
+import nu.nethome.util.ps.FieldValue;
+import nu.nethome.util.ps.Message;
+import nu.nethome.util.ps.ProtocolEncoder;
+import nu.nethome.util.ps.ProtocolInfo;
+
+/**
+ * An encoder for the same protocol SyntheticDecoder decodes. The "Data" field of the message is
+ * encoded as 24 bits, each as a short or long mark followed by a space, and the first message
+ * has a preamble.
+ */
+public class SyntheticEncoder implements ProtocolEncoder {
+
+    private static final int BITS = 24;
+    private static final int SHORT = 375;
+    private static final int LONG = 1125;
+    private static final int GAP = 10000;
+
+    public ProtocolInfo getInfo() {
+        return new ProtocolInfo("Synthetic", "Mark Length", "-", BITS, 5);
+    }
+
+    public int[] encode(Message message, Phase phase) throws BadMessageException {
+        if (phase == Phase.FIRST) {
+            return new int[]{GAP, GAP};
+        }
+        int data = getData(message);
+        int result[] = new int[BITS * 2 + 2];
+        int pulse = 0;
+        for (int i = BITS - 1; i >= 0; i--) {
+            result[pulse++] = ((data >> i) & 1) == 1 ? LONG : SHORT;
+            result[pulse++] = SHORT;
+        }
+        result[pulse++] = SHORT;
+        result[pulse] = GAP;
+        return result;
+    }
+
+    public int modulationFrequency(Message message) {
+        return 0;
+    }
+
+    private static int getData(Message message) throws BadMessageException {
+        for (FieldValue field : message.getFields()) {
+            if (field.getName().equals("Data")) {
+                return field.getValue();
+            }
+        }
+        throw new BadMessageException(null);
+    }
+}
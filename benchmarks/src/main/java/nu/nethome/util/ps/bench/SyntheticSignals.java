@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.bench;
+
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Deterministic generators of synthetic test signals, so the benchmarks can run without
+ * any audio or serial hardware. All generators use a fixed seed and give the same data every run.
+ */
+public final class SyntheticSignals {
+
+    public static final int SAMPLE_RATE = 44100;
+    private static final long SEED = 4711;
+
+    private SyntheticSignals() {
+    }
+
+    /**
+     * Generate a pulse train of alternating mark and space pulses with lengths typical for
+     * simple RF remote protocols (mark/space of 1 or 3 units) separated by long gaps.
+     *
+     * @param count number of pulses
+     * @return pulse lengths in micro seconds, starting with a mark pulse
+     */
+    public static int[] pulses(int count) {
+        Random random = new Random(SEED);
+        int result[] = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (i % 50 == 49) {
+                result[i] = 10000; // Gap between messages
+            } else {
+                result[i] = random.nextBoolean() ? 375 : 1125;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Render a pulse train as 8 bit signed audio samples with some noise added, as it would
+     * be received from a simple receiver connected to the microphone input.
+     *
+     * @param count number of samples
+     * @return samples in the range -128 - 127
+     */
+    public static int[] samples(int count) {
+        Random random = new Random(SEED);
+        int pulses[] = pulses(count / 10 + 1);
+        int result[] = new int[count];
+        int pulse = 0;
+        int left = 0;
+        boolean mark = false;
+        for (int i = 0; i < count; i++) {
+            while (left <= 0) {
+                mark = (pulse % 2) == 0;
+                left = (int) ((long) pulses[pulse++ % pulses.length] * SAMPLE_RATE / 1000000);
+            }
+            left--;
+            result[i] = (mark ? 80 : -80) + random.nextInt(21) - 10;
+        }
+        return result;
+    }
+
+    /**
+     * Generate the text a CUL device sends when it receives a pulse train, one line per pulse
+     * like "m0177" or "s2710" terminated by CR LF.
+     *
+     * @param count number of pulses
+     * @return the received bytes
+     */
+    public static byte[] culLines(int count) {
+        int pulses[] = pulses(count);
+        StringBuilder result = new StringBuilder(count * 7);
+        for (int i = 0; i < count; i++) {
+            result.append(i % 2 == 0 ? 'm' : 's');
+            result.append(String.format("%04X", pulses[i]));
+            result.append("\r\n");
+        }
+        return result.toString().getBytes(Charset.forName("US-ASCII"));
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps;
+
+/**
+ * A ProtocolEncoder which remembers the encoded form of recently encoded messages, so messages which are
+ * sent again and again are only encoded once. It wraps another encoder which does the real encoding.
+ * The encoder must give the same result every time it encodes a message with the same fields.
+ * Use {@link #sequence(Message, int)} to get the encoded message without any copying.
+ */
+public class CachingProtocolEncoder implements ProtocolEncoder {
+
+    private final ProtocolEncoder encoder;
+    private final EncodedMessageCache cache;
+
+    /**
+     * Create an encoder with its own cache of default size
+     *
+     * @param encoder encoder which does the real encoding
+     */
+    public CachingProtocolEncoder(ProtocolEncoder encoder) {
+        this(encoder, new EncodedMessageCache());
+    }
+
+    /**
+     * @param encoder encoder which does the real encoding
+     * @param cache   cache to use, may be shared with other encoders
+     */
+    public CachingProtocolEncoder(ProtocolEncoder encoder, EncodedMessageCache cache) {
+        this.encoder = encoder;
+        this.cache = cache;
+    }
+
+    public ProtocolInfo getInfo() {
+        return encoder.getInfo();
+    }
+
+    /**
+     * Encode the message, see {@link ProtocolEncoder#encode(Message, Phase)}. The result is a copy, so the
+     * caller may modify it.
+     */
+    public int[] encode(Message message, Phase phase) throws BadMessageException {
+        PulseSequence encoded = cache.get(encoder, message);
+        return phase == Phase.FIRST ? encoded.getFirst() : encoded.getRepeated();
+    }
+
+    /**
+     * Get the encoded message as an immutable pulse sequence. The pulses are shared with the cache.
+     *
+     * @param message message to encode
+     * @param repeat  number of times to repeat the message
+     * @return The encoded sequence
+     * @throws BadMessageException if the message can not be encoded
+     */
+    public PulseSequence sequence(Message message, int repeat) throws BadMessageException {
+        return cache.get(encoder, message).withRepeatCount(repeat);
+    }
+
+    public int modulationFrequency(Message message) {
+        return encoder.modulationFrequency(message);
+    }
+
+    public ProtocolEncoder getEncoder() {
+        return encoder;
+    }
+
+    public EncodedMessageCache getCache() {
+        return cache;
+    }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of encoded messages, where the least recently used message is evicted when the cache
+ * is full. Messages are identified by the class of the encoder together with the fields of the message.
+ * The cache is used by {@link CachingProtocolEncoder} and may be shared by several encoders.
+ */
+public class EncodedMessageCache {
+
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private static class Key {
+        private final Class<?> encoderClass;
+        private final List<FieldValue> fields;
+        private final int hash;
+
+        Key(Class<?> encoderClass, List<FieldValue> fields) {
+            this.encoderClass = encoderClass;
+            this.fields = fields;
+            hash = 31 * encoderClass.hashCode() + fields.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return hash == other.hash && encoderClass == other.encoderClass && fields.equals(other.fields);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * A map in access order which removes the least recently used entry when it grows above maxSize
+     */
+    private static class LruMap extends LinkedHashMap<Key, PulseSequence> {
+        static final long serialVersionUID = 0;
+
+        private final int maxSize;
+        long evictions = 0;
+
+        LruMap(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, PulseSequence> eldest) {
+            if (size() > maxSize) {
+                evictions++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final int maxSize;
+    private final LruMap cache;
+    private long hits = 0;
+    private long misses = 0;
+
+    public EncodedMessageCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * @param maxSize maximum number of messages in the cache
+     */
+    public EncodedMessageCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Bad cache size: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        cache = new LruMap(maxSize);
+    }
+
+    /**
+     * Get the encoded form of a message, encoding it if it is not in the cache
+     *
+     * @param encoder encoder to use
+     * @param message message to encode
+     * @return the first and repeated part of the message, with repeat count 1
+     * @throws BadMessageException if the encoder can not encode the message
+     */
+    public PulseSequence get(ProtocolEncoder encoder, Message message) throws BadMessageException {
+        Key key = new Key(encoder.getClass(), new ArrayList<FieldValue>(message.getFields()));
+        synchronized (this) {
+            PulseSequence result = cache.get(key);
+            if (result != null) {
+                hits++;
+                return result;
+            }
+            misses++;
+        }
+        // Encode outside the lock, encoders may be slow
+        int first[] = encoder.encode(message, ProtocolEncoder.Phase.FIRST);
+        int repeated[] = encoder.encode(message, ProtocolEncoder.Phase.REPEATED);
+        PulseSequence result = new PulseSequence(first, repeated, 1);
+        synchronized (this) {
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    public synchronized void clear() {
+        cache.clear();
+    }
+
+    public synchronized int size() {
+        return cache.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return Number of times an encoded message was found in the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Number of times a message had to be encoded
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return Number of messages removed from the cache to make room for new messages
+     */
+    public synchronized long getEvictions() {
+        return cache.evictions;
+    }
+}
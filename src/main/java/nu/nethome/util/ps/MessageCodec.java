@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps;
+
+import java.nio.charset.Charset;
+
+/**
+ * Constants of the compact binary message format used by {@link MessageWriter} and {@link MessageReader}.
+ * <p>
+ * A stream starts with the magic bytes "NHPM" and a version byte, followed by messages. Integers are
+ * written as varints (7 bits per byte, least significant first), signed values zigzag encoded.
+ * Protocol and field names are interned: the first time a name occurs it is written as a string and
+ * given the next number, after that only the number is written.
+ */
+final class MessageCodec {
+
+    static final byte MAGIC[] = {'N', 'H', 'P', 'M'};
+    static final int VERSION = 1;
+
+    static final int PROTOCOL_MESSAGE = 1;
+    static final int RAW_PROTOCOL_MESSAGE = 2;
+
+    static final int INT_FIELD = 0;
+    static final int STRING_FIELD = 1;
+
+    /** Pulse lengths are all whole micro seconds and written as varints */
+    static final int INTEGER_LENGTHS = 0;
+    /** Pulse lengths are written as 8 byte doubles */
+    static final int DOUBLE_LENGTHS = 1;
+
+    /** All samples fit in a byte and are written as one byte each */
+    static final int BYTE_SAMPLES = 0;
+    /** Samples are written as two bytes each */
+    static final int SHORT_SAMPLES = 1;
+
+    /** A name reference of 0 means that the name follows as a string */
+    static final int NEW_NAME = 0;
+    /** Maximum number of interned names in a stream, names after that are always written as strings */
+    static final int MAX_NAMES = 4096;
+
+    /**
+     * Maximum number of samples in a raw message. A raw message is at most 800 ms plus the pre-trigger
+     * history, so this gives room for several seconds at sample rates well above 16 bit audio. Larger
+     * counts are taken as a corrupt stream, rather than allocating arrays of that size.
+     */
+    static final int MAX_SAMPLES = 1 << 20;
+    /** Maximum number of bytes in a string or in the raw message of a protocol message */
+    static final int MAX_LENGTH = 1 << 16;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private MessageCodec() {
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads protocol messages written by a {@link MessageWriter} from a channel. The channel should be
+ * in blocking mode.
+ *
+ * @author Stefan
+ */
+public class MessageReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final List<String> names = new ArrayList<String>();
+    private final int version;
+
+    /**
+     * Create a reader and read the stream header
+     *
+     * @param channel channel to read from
+     * @throws IOException if the header could not be read or the stream is not in a supported format
+     */
+    public MessageReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.flip();
+        require(MessageCodec.MAGIC.length + 1);
+        for (byte magic : MessageCodec.MAGIC) {
+            if (buffer.get() != magic) {
+                throw new StreamCorruptedException("Not a message stream");
+            }
+        }
+        version = buffer.get() & 0xFF;
+        if (version > MessageCodec.VERSION) {
+            throw new StreamCorruptedException("Unsupported message stream version " + version);
+        }
+    }
+
+    /**
+     * @return version of the format of the stream
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Read the next message
+     *
+     * @return the message or null at the end of the stream
+     * @throws IOException if reading fails or the stream is corrupt or ends within a message
+     */
+    public ProtocolMessage read() throws IOException {
+        if (!fill(1)) {
+            return null;
+        }
+        int type = buffer.get() & 0xFF;
+        if (type == MessageCodec.PROTOCOL_MESSAGE) {
+            return readBase();
+        } else if (type == MessageCodec.RAW_PROTOCOL_MESSAGE) {
+            return readRaw(readBase());
+        }
+        throw new StreamCorruptedException("Unknown message type " + type);
+    }
+
+    /**
+     * Close the channel
+     *
+     * @throws IOException if closing the channel fails
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private ProtocolMessage readBase() throws IOException {
+        String protocol = readName();
+        int command = readSigned();
+        int address = readSigned();
+        int repeat = readSigned();
+        int rawLength = readCount(MessageCodec.MAX_LENGTH + 1);
+        int raw[] = null;
+        if (rawLength > 0) {
+            raw = new int[rawLength - 1];
+            for (int i = 0; i < raw.length; i++) {
+                raw[i] = readSigned();
+            }
+        }
+        ProtocolMessage message = new ProtocolMessage(protocol, command, address, raw);
+        message.setRepeat(repeat);
+        message.setInterpretation(readName());
+        int fieldCount = readCount();
+        for (int i = 0; i < fieldCount; i++) {
+            String name = readName();
+            int fieldType = readByte();
+            if (fieldType == MessageCodec.STRING_FIELD) {
+                message.addField(new FieldValue(name, readString()));
+            } else if (fieldType == MessageCodec.INT_FIELD) {
+                message.addField(new FieldValue(name, readSigned()));
+            } else {
+                throw new StreamCorruptedException("Unknown field type " + fieldType);
+            }
+        }
+        return message;
+    }
+
+    private RawProtocolMessage readRaw(ProtocolMessage base) throws IOException {
+        int frequency = readSigned();
+
+        // Each pulse is at least one sample long
+        int positions[] = new int[readCount(MessageCodec.MAX_SAMPLES)];
+        int last = 0;
+        for (int i = 0; i < positions.length; i++) {
+            last += readSigned();
+            positions[i] = last;
+        }
+
+        double lengths[] = new double[readCount(MessageCodec.MAX_SAMPLES)];
+        int lengthType = readByte();
+        for (int i = 0; i < lengths.length; i++) {
+            if (lengthType == MessageCodec.INTEGER_LENGTHS) {
+                lengths[i] = readSigned();
+            } else if (lengthType == MessageCodec.DOUBLE_LENGTHS) {
+                require(8);
+                lengths[i] = buffer.getDouble();
+            } else {
+                throw new StreamCorruptedException("Unknown pulse length type " + lengthType);
+            }
+        }
+
+        short samples[] = new short[readCount(MessageCodec.MAX_SAMPLES)];
+        int sampleType = readByte();
+        int sampleSize;
+        if (sampleType == MessageCodec.BYTE_SAMPLES) {
+            sampleSize = 1;
+        } else if (sampleType == MessageCodec.SHORT_SAMPLES) {
+            sampleSize = 2;
+        } else {
+            throw new StreamCorruptedException("Unknown sample type " + sampleType);
+        }
+        int i = 0;
+        while (i < samples.length) {
+            require(sampleSize);
+            int end = Math.min(samples.length, i + buffer.remaining() / sampleSize);
+            for (; i < end; i++) {
+                samples[i] = (sampleSize == 1) ? buffer.get() : buffer.getShort();
+            }
+        }
+
+        RawProtocolMessage message = new RawProtocolMessage(positions, lengths,
+                SampleWindow.view(samples, 0, samples.length), frequency);
+        message.setProtocol(base.getProtocol());
+        message.setCommand(base.getCommand());
+        message.setAddress(base.getAddress());
+        message.setRepeat(base.getRepeat());
+        message.setInterpretation(base.getInterpretation());
+        int raw[] = base.getRawMessage();
+        for (int j = 0; raw != null && j < raw.length && j < message.getRawMessage().length; j++) {
+            message.setRawMessageByteAt(j, raw[j]);
+        }
+        for (FieldValue field : base.getFields()) {
+            message.addField(field);
+        }
+        return message;
+    }
+
+    private String readName() throws IOException {
+        int number = readCount();
+        if (number != MessageCodec.NEW_NAME) {
+            if (number > names.size()) {
+                throw new StreamCorruptedException("Unknown name " + number);
+            }
+            return names.get(number - 1);
+        }
+        String name = readString();
+        if (name != null && names.size() < MessageCodec.MAX_NAMES) {
+            names.add(name);
+        }
+        return name;
+    }
+
+    private String readString() throws IOException {
+        int length = readCount(MessageCodec.MAX_LENGTH + 1);
+        if (length == 0) {
+            return null;
+        }
+        byte bytes[] = new byte[length - 1];
+        int read = 0;
+        while (read < bytes.length) {
+            require(1);
+            int part = Math.min(buffer.remaining(), bytes.length - read);
+            buffer.get(bytes, read, part);
+            read += part;
+        }
+        return new String(bytes, MessageCodec.UTF8);
+    }
+
+    private int readByte() throws IOException {
+        require(1);
+        return buffer.get() & 0xFF;
+    }
+
+    private int readSigned() throws IOException {
+        return MessageCodec.unZigZag(readUnsigned());
+    }
+
+    private int readCount() throws IOException {
+        int count = readUnsigned();
+        if (count < 0) {
+            throw new StreamCorruptedException("Negative count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Read a count which is used to size an array, so a corrupt count can not exhaust the memory
+     */
+    private int readCount(int max) throws IOException {
+        int count = readCount();
+        if (count > max) {
+            throw new StreamCorruptedException("Count " + count + " is larger than the maximum " + max);
+        }
+        return count;
+    }
+
+    private int readUnsigned() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new StreamCorruptedException("Malformed varint");
+    }
+
+    private void require(int bytes) throws IOException {
+        if (!fill(bytes)) {
+            throw new EOFException("Message stream ended within a message");
+        }
+    }
+
+    /**
+     * Make sure that at least the specified number of bytes are available in the buffer
+     *
+     * @return false if the stream ended before that
+     */
+    private boolean fill(int bytes) throws IOException {
+        while (buffer.remaining() < bytes) {
+            buffer.compact();
+            int read = channel.read(buffer);
+            buffer.flip();
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
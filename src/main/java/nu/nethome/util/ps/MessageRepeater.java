@@ -34,13 +34,26 @@ public class MessageRepeater {
      * @throws BadMessageException
      */
     public static int[] repeat(ProtocolEncoder encoder, Message message, int repeat) throws BadMessageException {
+        return sequence(encoder, message, repeat).toArray();
+    }
+
+    /**
+     * Encode the specified message using the specified encoder as a pulse sequence where the repeated
+     * part is repeated specified number of times. The repeats are not copied, so this is preferred over
+     * repeat when the sequence can be played directly.
+     *
+     * @param encoder To encode the message
+     * @param message Message to encode
+     * @param repeat Number of times to repeat the message
+     * @return The encoded sequence
+     * @throws BadMessageException
+     */
+    public static PulseSequence sequence(ProtocolEncoder encoder, Message message, int repeat) throws BadMessageException {
+        if (encoder instanceof CachingProtocolEncoder) {
+            return ((CachingProtocolEncoder) encoder).sequence(message, repeat);
+        }
         int preamble[] = encoder.encode(message, ProtocolEncoder.Phase.FIRST);
         int repeated[] = encoder.encode(message, ProtocolEncoder.Phase.REPEATED);
-        int result[] = new int[preamble.length + repeated.length * repeat];
-        System.arraycopy(preamble, 0, result, 0, preamble.length);
-        for (int i = 0; i < repeat; i++) {
-            System.arraycopy(repeated, 0, result, preamble.length + repeated.length * i, repeated.length);
-        }
-        return result;
+        return new PulseSequence(preamble, repeated, repeat);
     }
 }
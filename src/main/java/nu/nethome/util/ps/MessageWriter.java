@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes protocol messages to a channel in a compact binary format which can be read back with
+ * {@link MessageReader}. This is much smaller and faster than Java serialization, especially for
+ * {@link RawProtocolMessage}, where pulse positions are delta encoded and samples which fit in a
+ * byte are written as one byte each.
+ * <p>
+ * Subclasses of ProtocolMessage other than RawProtocolMessage are written as plain ProtocolMessages.
+ * Data is buffered, so flush or close the writer when done.
+ *
+ * @author Stefan
+ */
+public class MessageWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Map<String, Integer> names = new HashMap<String, Integer>();
+
+    /**
+     * Create a writer and write the stream header
+     *
+     * @param channel channel to write to
+     */
+    public MessageWriter(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer.put(MessageCodec.MAGIC);
+        buffer.put((byte) MessageCodec.VERSION);
+    }
+
+    /**
+     * Write a message
+     *
+     * @param message message to write
+     * @throws IOException              if writing to the channel fails
+     * @throws IllegalArgumentException if the message is larger than {@link MessageReader} accepts,
+     *                                  see {@link MessageCodec#MAX_SAMPLES}. Nothing is written then.
+     */
+    public void write(ProtocolMessage message) throws IOException {
+        checkBase(message);
+        if (message instanceof RawProtocolMessage) {
+            RawProtocolMessage rawMessage = (RawProtocolMessage) message;
+            SampleWindow samples = rawMessage.getSamples();
+            checkCount("Pulse count", rawMessage.m_PulseList.size(), MessageCodec.MAX_SAMPLES);
+            checkCount("Pulse length count", rawMessage.m_PulseLengths.size(), MessageCodec.MAX_SAMPLES);
+            checkCount("Sample count", samples.length(), MessageCodec.MAX_SAMPLES);
+            writeByte(MessageCodec.RAW_PROTOCOL_MESSAGE);
+            writeBase(message);
+            writeRaw(rawMessage, samples);
+        } else {
+            writeByte(MessageCodec.PROTOCOL_MESSAGE);
+            writeBase(message);
+        }
+    }
+
+    /**
+     * Write all buffered data to the channel
+     *
+     * @throws IOException if writing to the channel fails
+     */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Flush the writer and close the channel
+     *
+     * @throws IOException if writing to the channel fails
+     */
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void checkBase(ProtocolMessage message) {
+        int raw[] = message.getRawMessage();
+        if (raw != null) {
+            checkCount("Raw message length", raw.length, MessageCodec.MAX_LENGTH);
+        }
+        checkString(message.getProtocol());
+        checkString(message.getInterpretation());
+        for (FieldValue field : message.getFields()) {
+            checkString(field.getName());
+            if (field.isStringValue()) {
+                checkString(field.getStringValue());
+            }
+        }
+    }
+
+    private static void checkString(String value) {
+        // A character is at most three bytes in UTF-8, so only long strings have to be encoded
+        if (value != null && value.length() * 3 > MessageCodec.MAX_LENGTH) {
+            checkCount("String length", value.getBytes(MessageCodec.UTF8).length, MessageCodec.MAX_LENGTH);
+        }
+    }
+
+    private static void checkCount(String what, int count, int max) {
+        if (count > max) {
+            throw new IllegalArgumentException(what + " " + count + " is larger than the maximum " + max);
+        }
+    }
+
+    private void writeBase(ProtocolMessage message) throws IOException {
+        writeName(message.getProtocol());
+        writeSigned(message.getCommand());
+        writeSigned(message.getAddress());
+        writeSigned(message.getRepeat());
+        int raw[] = message.getRawMessage();
+        if (raw == null) {
+            writeUnsigned(0);
+        } else {
+            writeUnsigned(raw.length + 1);
+            for (int value : raw) {
+                writeSigned(value);
+            }
+        }
+        writeName(message.getInterpretation());
+        List<FieldValue> fields = message.getFields();
+        writeUnsigned(fields.size());
+        for (FieldValue field : fields) {
+            writeName(field.getName());
+            if (field.isStringValue()) {
+                writeByte(MessageCodec.STRING_FIELD);
+                writeString(field.getStringValue());
+            } else {
+                writeByte(MessageCodec.INT_FIELD);
+                writeSigned(field.getValue());
+            }
+        }
+    }
+
+    private void writeRaw(RawProtocolMessage message, SampleWindow samples) throws IOException {
+        writeSigned(message.m_SampleFrequency);
+
+        List<Integer> positions = message.m_PulseList;
+        writeUnsigned(positions.size());
+        int last = 0;
+        for (int position : positions) {
+            writeSigned(position - last);
+            last = position;
+        }
+
+        List<Double> lengths = message.m_PulseLengths;
+        writeUnsigned(lengths.size());
+        boolean isInteger = true;
+        for (double length : lengths) {
+            isInteger &= length == (int) length;
+        }
+        writeByte(isInteger ? MessageCodec.INTEGER_LENGTHS : MessageCodec.DOUBLE_LENGTHS);
+        for (double length : lengths) {
+            if (isInteger) {
+                writeSigned((int) length);
+            } else {
+                ensure(8);
+                buffer.putDouble(length);
+            }
+        }
+
+        int count = samples.length();
+        writeUnsigned(count);
+        boolean fitsInByte = true;
+        for (int i = 0; i < count && fitsInByte; i++) {
+            fitsInByte = samples.get(i) == (byte) samples.get(i);
+        }
+        writeByte(fitsInByte ? MessageCodec.BYTE_SAMPLES : MessageCodec.SHORT_SAMPLES);
+        int i = 0;
+        while (i < count) {
+            ensure(2);
+            int end = Math.min(count, i + (fitsInByte ? buffer.remaining() : buffer.remaining() / 2));
+            for (; i < end; i++) {
+                if (fitsInByte) {
+                    buffer.put((byte) samples.get(i));
+                } else {
+                    buffer.putShort(samples.get(i));
+                }
+            }
+        }
+    }
+
+    private void writeName(String name) throws IOException {
+        Integer number = (name == null) ? null : names.get(name);
+        if (number != null) {
+            writeUnsigned(number);
+            return;
+        }
+        writeUnsigned(MessageCodec.NEW_NAME);
+        writeString(name);
+        if (name != null && names.size() < MessageCodec.MAX_NAMES) {
+            names.put(name, names.size() + 1);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        if (value == null) {
+            writeUnsigned(0);
+            return;
+        }
+        byte bytes[] = value.getBytes(MessageCodec.UTF8);
+        writeUnsigned(bytes.length + 1);
+        int written = 0;
+        while (written < bytes.length) {
+            ensure(1);
+            int part = Math.min(buffer.remaining(), bytes.length - written);
+            buffer.put(bytes, written, part);
+            written += part;
+        }
+    }
+
+    private void writeByte(int value) throws IOException {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    private void writeSigned(int value) throws IOException {
+        writeUnsigned(MessageCodec.zigZag(value));
+    }
+
+    private void writeUnsigned(int value) throws IOException {
+        ensure(5);
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
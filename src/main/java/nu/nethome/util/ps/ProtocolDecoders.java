@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps;
+
+/**
+ * Helper methods for feeding pulses to ProtocolDecoders.
+ *
+ * @author Stefan
+ */
+public final class ProtocolDecoders {
+
+    private ProtocolDecoders() {
+    }
+
+    /**
+     * Feed a train of pulses to a decoder. If the decoder is a {@link PulseTrainDecoder} the
+     * whole train is handed over in one call, otherwise the pulses are parsed one at a time.
+     *
+     * @param decoder decoder to feed
+     * @param pulses  pulses to parse
+     * @return The resulting state in the decoder after the last pulse
+     */
+    public static int parse(ProtocolDecoder decoder, PulseTrain pulses) {
+        if (decoder instanceof PulseTrainDecoder) {
+            return ((PulseTrainDecoder) decoder).parse(pulses);
+        }
+        return pulses.parseEach(decoder);
+    }
+}
@@ -19,10 +19,16 @@
 
 package nu.nethome.util.ps;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * The ProtocolInfo holds general information about a specific protocol, such as
  * name of the protocol, manufacturer and so on. It is used to describe for example a
  * ProtocolDecoder.
+ * A decoder may also declare which pulses can start a message with the addStartPulse methods. A decoder
+ * which does this promises that, while it is idle (the last parse call returned 0), it ignores all other pulses.
  * @author Stefan
  *
  */
@@ -33,6 +39,7 @@ public class ProtocolInfo {
     private String company;
     private int length;
     private int defaultRepeatCount;
+    private List<StartPulse> startPulses = new ArrayList<StartPulse>();
 
     /**
      * @param name Name of the protocol
@@ -80,4 +87,31 @@ public class ProtocolInfo {
     public int getDefaultRepeatCount() {
         return defaultRepeatCount;
     }
+
+    /**
+     * Declare a pulse which can start a message of the protocol
+     * @param pulse The accepted lengths of the start pulse
+     * @param isMark true if the start pulse is a mark pulse, false if it is a space pulse
+     * @return this object, so calls can be chained
+     */
+    public ProtocolInfo addStartPulse(PulseLength pulse, boolean isMark) {
+        return addStartPulse(new StartPulse(pulse.lowerLimit(), pulse.upperLimit(), isMark));
+    }
+
+    /**
+     * Declare a pulse which can start a message of the protocol
+     * @param pulse The start pulse
+     * @return this object, so calls can be chained
+     */
+    public ProtocolInfo addStartPulse(StartPulse pulse) {
+        startPulses.add(pulse);
+        return this;
+    }
+
+    /**
+     * @return The declared start pulses of the protocol. If the list is empty, any pulse may start a message.
+     */
+    public List<StartPulse> getStartPulses() {
+        return Collections.unmodifiableList(startPulses);
+    }
 }
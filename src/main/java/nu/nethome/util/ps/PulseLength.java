@@ -88,6 +88,22 @@ public class PulseLength {
 		return m_CenterLength;
 	}
 	
+	/**
+	 * Get the lowest acceptable length of the pulse
+	 * @return lower limit in micro seconds
+	 */
+	public int lowerLimit() {
+		return m_LowerLimit;
+	}
+	
+	/**
+	 * Get the highest acceptable length of the pulse
+	 * @return upper limit in micro seconds
+	 */
+	public int upperLimit() {
+		return m_UpperLimit;
+	}
+	
 	/**
 	 * Verify if the supplied length is within this pulse's tolerance
 	 * @param pulse Pulse length to compare with
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps;
+
+import java.util.Arrays;
+
+/**
+ * An immutable pulse sequence consisting of a first part which is played once followed by a repeated
+ * part which is played a number of times. The repeats are not stored, so a sequence with many repeats
+ * takes no more memory than one with a single repeat. Pulse lengths are in micro seconds, starting with
+ * a mark pulse, just like the result of {@link ProtocolEncoder#encode(Message, ProtocolEncoder.Phase)}.
+ */
+public final class PulseSequence {
+
+    private final int first[];
+    private final int repeated[];
+    private final int repeatCount;
+
+    /**
+     * @param first       pulses played once at the start of the sequence
+     * @param repeated    pulses played repeatCount times after the first part
+     * @param repeatCount number of times the repeated part is played
+     */
+    public PulseSequence(int first[], int repeated[], int repeatCount) {
+        this.first = first.clone();
+        this.repeated = repeated.clone();
+        this.repeatCount = checkRepeatCount(repeatCount);
+    }
+
+    /**
+     * A sequence with the pulses of another sequence, the arrays are shared since they are never modified
+     */
+    private PulseSequence(PulseSequence pulses, int repeatCount) {
+        this.first = pulses.first;
+        this.repeated = pulses.repeated;
+        this.repeatCount = checkRepeatCount(repeatCount);
+    }
+
+    private static int checkRepeatCount(int repeatCount) {
+        if (repeatCount < 0) {
+            throw new IllegalArgumentException("Negative repeat count: " + repeatCount);
+        }
+        return repeatCount;
+    }
+
+    /**
+     * @param repeatCount number of times the repeated part is played
+     * @return A sequence with the same pulses but another repeat count. The pulses are shared, not copied.
+     */
+    public PulseSequence withRepeatCount(int repeatCount) {
+        return repeatCount == this.repeatCount ? this : new PulseSequence(this, repeatCount);
+    }
+
+    /**
+     * @return Copy of the pulses played once at the start of the sequence
+     */
+    public int[] getFirst() {
+        return first.clone();
+    }
+
+    /**
+     * @return Copy of the pulses which are repeated
+     */
+    public int[] getRepeated() {
+        return repeated.clone();
+    }
+
+    public int getRepeatCount() {
+        return repeatCount;
+    }
+
+    /**
+     * @return Number of pulses in the first part, which is where the repeated part begins in getMessage
+     */
+    public int getRepeatOffset() {
+        return first.length;
+    }
+
+    /**
+     * @return Total number of pulses in the sequence
+     */
+    public int length() {
+        return first.length + repeated.length * repeatCount;
+    }
+
+    /**
+     * @param index pulse number in the sequence
+     * @return length of the pulse
+     */
+    public int get(int index) {
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("Pulse " + index + " of " + length());
+        }
+        if (index < first.length) {
+            return first[index];
+        }
+        return repeated[(index - first.length) % repeated.length];
+    }
+
+    /**
+     * Copy a part of the sequence to a buffer, so the sequence can be streamed without creating the
+     * complete sequence.
+     *
+     * @param position first pulse in the sequence to copy
+     * @param buffer   destination
+     * @param offset   where in the buffer to start writing
+     * @param length   maximum number of pulses to copy
+     * @return number of pulses copied, 0 when position is at the end of the sequence
+     */
+    public int read(int position, int buffer[], int offset, int length) {
+        int count = Math.max(0, Math.min(length, length() - position));
+        int copied = 0;
+        while (copied < count) {
+            int index = position + copied;
+            int part;
+            if (index < first.length) {
+                part = Math.min(count - copied, first.length - index);
+                System.arraycopy(first, index, buffer, offset + copied, part);
+            } else {
+                int repeatIndex = (index - first.length) % repeated.length;
+                part = Math.min(count - copied, repeated.length - repeatIndex);
+                System.arraycopy(repeated, repeatIndex, buffer, offset + copied, part);
+            }
+            copied += part;
+        }
+        return count;
+    }
+
+    /**
+     * Get the first part followed by one copy of the repeated part. Together with getRepeatCount and
+     * getRepeatOffset this is the message, repeat and repeat offset form used by pulse transmitters.
+     *
+     * @return the first part followed by the repeated part
+     */
+    public int[] getMessage() {
+        int result[] = Arrays.copyOf(first, first.length + repeated.length);
+        System.arraycopy(repeated, 0, result, first.length, repeated.length);
+        return result;
+    }
+
+    /**
+     * @return The complete sequence with all repeats
+     */
+    public int[] toArray() {
+        int result[] = new int[length()];
+        read(0, result, 0, result.length);
+        return result;
+    }
+}
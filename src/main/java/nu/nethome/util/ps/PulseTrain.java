@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps;
+
+import java.util.Arrays;
+
+/**
+ * A reusable sequence of pulses stored in primitive arrays. Each pulse has a length in uS (both as
+ * double and rounded to int), a mark/space flag and optionally the sample position where it ended.
+ * Pulse sources can collect a burst of pulses in a PulseTrain and hand it to a decoder in one call,
+ * see {@link PulseTrainDecoder}.
+ *
+ * @author Stefan
+ */
+public class PulseTrain {
+
+    /**
+     * Sample position of pulses which do not come from a sampled signal
+     */
+    public static final long NO_POSITION = -1;
+
+    private static final int DEFAULT_CAPACITY = 64;
+
+    private double lengths[];
+    private int intLengths[];
+    private long marks[];
+    private long positions[];
+    private int size = 0;
+
+    public PulseTrain() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity initial number of pulses that can be held, the train grows if needed
+     */
+    public PulseTrain(int capacity) {
+        capacity = Math.max(capacity, 1);
+        lengths = new double[capacity];
+        intLengths = new int[capacity];
+        positions = new long[capacity];
+        marks = new long[(capacity + 63) >> 6];
+    }
+
+    /**
+     * Add a pulse without sample position
+     *
+     * @param length length of the pulse in uS
+     * @param isMark true if the pulse is a mark, false for a space
+     */
+    public void add(double length, boolean isMark) {
+        add(length, isMark, NO_POSITION);
+    }
+
+    /**
+     * Add a pulse
+     *
+     * @param length         length of the pulse in uS
+     * @param isMark         true if the pulse is a mark, false for a space
+     * @param samplePosition number of the sample where the pulse ended
+     */
+    public void add(double length, boolean isMark, long samplePosition) {
+        if (size == lengths.length) {
+            grow();
+        }
+        lengths[size] = length;
+        intLengths[size] = (int) Math.round(length);
+        positions[size] = samplePosition;
+        long bit = 1L << (size & 63);
+        if (isMark) {
+            marks[size >> 6] |= bit;
+        } else {
+            marks[size >> 6] &= ~bit;
+        }
+        size++;
+    }
+
+    /**
+     * Remove all pulses. The allocated storage is kept.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Remove the last pulse, if any
+     */
+    public void removeLast() {
+        if (size > 0) {
+            size--;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param index pulse number
+     * @return length of the pulse in uS
+     */
+    public double getLength(int index) {
+        checkIndex(index);
+        return lengths[index];
+    }
+
+    /**
+     * @param index pulse number
+     * @return length of the pulse in uS rounded to nearest integer
+     */
+    public int getIntLength(int index) {
+        checkIndex(index);
+        return intLengths[index];
+    }
+
+    /**
+     * @param index pulse number
+     * @return true if the pulse is a mark, false if it is a space
+     */
+    public boolean isMark(int index) {
+        checkIndex(index);
+        return ((marks[index >> 6] >>> (index & 63)) & 1) != 0;
+    }
+
+    /**
+     * @param index pulse number
+     * @return sample position where the pulse ended or NO_POSITION
+     */
+    public long getSamplePosition(int index) {
+        checkIndex(index);
+        return positions[index];
+    }
+
+    /**
+     * Feed all pulses to a decoder one at a time
+     *
+     * @param decoder decoder to feed
+     * @return the state returned by the decoder for the last pulse, 0 if the train is empty
+     */
+    public int parseEach(ProtocolDecoder decoder) {
+        int result = 0;
+        for (int i = 0; i < size; i++) {
+            result = decoder.parse(lengths[i], ((marks[i >> 6] >>> (i & 63)) & 1) != 0);
+        }
+        return result;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Pulse " + index + " of " + size);
+        }
+    }
+
+    private void grow() {
+        int capacity = lengths.length * 2;
+        lengths = Arrays.copyOf(lengths, capacity);
+        intLengths = Arrays.copyOf(intLengths, capacity);
+        positions = Arrays.copyOf(positions, capacity);
+        marks = Arrays.copyOf(marks, (capacity + 63) >> 6);
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps;
+
+/**
+ * A ProtocolDecoder which can parse a whole train of pulses in one call. Pulse sources
+ * should not call this interface directly, but use {@link ProtocolDecoders#parse(ProtocolDecoder, PulseTrain)}
+ * which falls back to calling {@link ProtocolDecoder#parse(double, boolean)} for each pulse if the
+ * decoder does not implement this interface.
+ *
+ * @author Stefan
+ */
+public interface PulseTrainDecoder extends ProtocolDecoder {
+    /**
+     * Parse all pulses in the train. The result shall be the same as calling
+     * {@link ProtocolDecoder#parse(double, boolean)} once for each pulse in the train.
+     * The decoder must not keep a reference to the train after the call.
+     *
+     * @param pulses pulses to parse
+     * @return The resulting state in the decoder after the last pulse, 0 if the train is empty
+     */
+    int parse(PulseTrain pulses);
+}
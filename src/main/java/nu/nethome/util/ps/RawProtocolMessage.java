@@ -19,14 +19,21 @@
 
 package nu.nethome.util.ps;
 
+import java.io.Serializable;
+import java.util.AbstractList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.RandomAccess;
 
 /**
  * The RawProtocolMessage is a ProtocolMessage which does not know any
  * specific protocol. It collects all sample data of a protocol message. This is used
  * to be able to present the raw data of an unknown protocol message for analysis.
+ * <p>
+ * Messages created from primitive arrays keep the arrays, and m_PulseList and m_Samples are
+ * read only list views of them, so no Integer objects are created unless the lists are read.
+ * The samples can also be read as a {@link SampleWindow}.
  * @author Stefan
  */
 public class RawProtocolMessage extends ProtocolMessage {
@@ -35,6 +42,7 @@ public class RawProtocolMessage extends ProtocolMessage {
 	public List<Integer> m_Samples;
 	public int m_SampleFrequency = 22000;
 	public LinkedList<Double> m_PulseLengths;
+	private SampleWindow m_SampleWindow;
 
 	public RawProtocolMessage(List<Integer> pulsePositions, List<Integer> samples, int frequency, LinkedList<Double> pulseLengths) { 
 		super("Raw", pulsePositions.size(), 0, 1);
@@ -43,6 +51,46 @@ public class RawProtocolMessage extends ProtocolMessage {
 		m_SampleFrequency = frequency;
 		m_PulseLengths = pulseLengths;
 	}
+
+	/**
+	 * Create a message from primitive arrays. The arrays are kept by the message and must not be
+	 * modified afterwards.
+	 *
+	 * @param pulsePositions sample position of each pulse
+	 * @param pulseLengths length of each pulse in uS
+	 * @param samples the raw samples, this should not be a view of a buffer which is reused
+	 * @param frequency sample frequency
+	 */
+	public RawProtocolMessage(int pulsePositions[], double pulseLengths[], SampleWindow samples, int frequency) {
+		super("Raw", pulsePositions.length, 0, 1);
+		m_PulseList = new IntListView(pulsePositions);
+		m_SampleWindow = samples;
+		m_Samples = samples.asList();
+		m_SampleFrequency = frequency;
+		m_PulseLengths = new LinkedList<Double>();
+		for (double length : pulseLengths) {
+			m_PulseLengths.add(length);
+		}
+	}
+
+	/**
+	 * Get the samples as a window, which can be used to read a part of the samples without copying them.
+	 * For messages created from lists this is a copy of m_Samples.
+	 *
+	 * @return the samples of the message
+	 */
+	public SampleWindow getSamples() {
+		if (m_SampleWindow == null) {
+			short samples[] = new short[m_Samples.size()];
+			int i = 0;
+			for (int sample : m_Samples) {
+				samples[i++] = (short) sample;
+			}
+			return SampleWindow.view(samples, 0, samples.length);
+		}
+		return m_SampleWindow;
+	}
+
 	@Override
 	public String toString() {
 		String result = "Raw: ";
@@ -52,4 +100,23 @@ public class RawProtocolMessage extends ProtocolMessage {
 		}
 		return result;
 	}
-}
\ No newline at end of file
+
+	private static class IntListView extends AbstractList<Integer> implements RandomAccess, Serializable {
+		static final long serialVersionUID = 0;
+		private final int m_Values[];
+
+		IntListView(int values[]) {
+			m_Values = values;
+		}
+
+		@Override
+		public Integer get(int index) {
+			return m_Values[index];
+		}
+
+		@Override
+		public int size() {
+			return m_Values.length;
+		}
+	}
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A read only window of 16 bit samples in an array. Windows of a window share the same
+ * array, so a part of a recording can be picked out without copying any samples.
+ * A window created with {@link #view(short[], int, int)} reflects changes in the underlying
+ * array, use {@link #copy()} to get a window which is detached from it.
+ */
+public final class SampleWindow implements Serializable {
+    static final long serialVersionUID = 0;
+
+    private final short samples[];
+    private final int offset;
+    private final int length;
+
+    /**
+     * @param samples the samples, they are copied
+     */
+    public SampleWindow(short samples[]) {
+        this(samples.clone(), 0, samples.length);
+    }
+
+    private SampleWindow(short samples[], int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > samples.length) {
+            throw new IndexOutOfBoundsException("Window " + offset + "+" + length + " of " + samples.length);
+        }
+        this.samples = samples;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Create a window of an array without copying it. Changes in the array are visible through
+     * the window.
+     *
+     * @param samples the array
+     * @param offset  index of the first sample of the window
+     * @param length  number of samples in the window
+     * @return a window of the array
+     */
+    public static SampleWindow view(short samples[], int offset, int length) {
+        return new SampleWindow(samples, offset, length);
+    }
+
+    /**
+     * @return number of samples in the window
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @param index sample number within the window
+     * @return the sample
+     */
+    public short get(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Sample " + index + " of " + length);
+        }
+        return samples[offset + index];
+    }
+
+    /**
+     * Get a part of this window. The samples are not copied.
+     *
+     * @param from index of the first sample, inclusive
+     * @param to   index of the last sample, exclusive
+     * @return the part of this window
+     */
+    public SampleWindow window(int from, int to) {
+        if (from < 0 || to > length || from > to) {
+            throw new IndexOutOfBoundsException("Window " + from + "-" + to + " of " + length);
+        }
+        return new SampleWindow(samples, offset + from, to - from);
+    }
+
+    /**
+     * @return a window with a private copy of the samples in this window
+     */
+    public SampleWindow copy() {
+        return new SampleWindow(toArray(), 0, length);
+    }
+
+    /**
+     * Copy the samples of the window to an array
+     *
+     * @param destination       array to copy to
+     * @param destinationOffset where in the array to put the first sample
+     */
+    public void copyTo(short destination[], int destinationOffset) {
+        System.arraycopy(samples, offset, destination, destinationOffset, length);
+    }
+
+    /**
+     * @return a copy of the samples in the window
+     */
+    public short[] toArray() {
+        return Arrays.copyOfRange(samples, offset, offset + length);
+    }
+
+    /**
+     * @return a read only list view of the samples in the window
+     */
+    public List<Integer> asList() {
+        return new ListView(this);
+    }
+
+    // Only the samples in the window are serialized, not the whole underlying array
+    private Object writeReplace() {
+        return (offset == 0 && length == samples.length) ? this : copy();
+    }
+
+    private static class ListView extends AbstractList<Integer> implements RandomAccess, Serializable {
+        static final long serialVersionUID = 0;
+        private final SampleWindow window;
+
+        ListView(SampleWindow window) {
+            this.window = window;
+        }
+
+        @Override
+        public Integer get(int index) {
+            return (int) window.get(index);
+        }
+
+        @Override
+        public int size() {
+            return window.length;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps;
+
+/**
+ * A range of pulse lengths of a specific type (mark or space) which may start a protocol message.
+ * Decoders may declare their start pulses in their {@link ProtocolInfo}, which allows a
+ * decoder group to skip calling idle decoders for pulses which cannot start a message for them.
+ *
+ * @author Stefan
+ */
+public class StartPulse {
+
+    private final double lowerLimit;
+    private final double upperLimit;
+    private final boolean isMark;
+
+    /**
+     * @param lowerLimit The lowest pulse length that can start a message in micro seconds
+     * @param upperLimit The highest pulse length that can start a message in micro seconds
+     * @param isMark     true if the start pulse is a mark pulse, false if it is a space pulse
+     */
+    public StartPulse(double lowerLimit, double upperLimit, boolean isMark) {
+        if (lowerLimit > upperLimit) {
+            throw new IllegalArgumentException("Lower limit is above upper limit");
+        }
+        this.lowerLimit = lowerLimit;
+        this.upperLimit = upperLimit;
+        this.isMark = isMark;
+    }
+
+    public double getLowerLimit() {
+        return lowerLimit;
+    }
+
+    public double getUpperLimit() {
+        return upperLimit;
+    }
+
+    public boolean isMark() {
+        return isMark;
+    }
+
+    /**
+     * @param pulseLength length of a pulse in micro seconds
+     * @param isMark      true if the pulse is a mark pulse
+     * @return true if the pulse can start a message
+     */
+    public boolean matches(double pulseLength, boolean isMark) {
+        return (isMark == this.isMark) && (pulseLength >= lowerLimit) && (pulseLength <= upperLimit);
+    }
+}
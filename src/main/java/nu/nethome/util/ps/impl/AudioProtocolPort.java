@@ -20,9 +20,8 @@
 package nu.nethome.util.ps.impl;
 
 import javax.sound.sampled.*;
-import java.io.IOException;
-import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Logger;
 
 /**
@@ -31,6 +30,10 @@ import java.util.logging.Logger;
  * to the added protocol decoders which will try to decode their protocols.
  * With simple hardware this will allow the microphone input to be used as 
  * interface for detecting IR or RF-protocols.
+ * The samples are read directly from the TargetDataLine in blocks and are
+ * handed to the ProtocolSampler a whole buffer at a time.
+ * Optionally the reading and the decoding can be done in separate threads with a ring buffer
+ * in between, see setRingBufferSize. Then a slow decoder cannot stall the reading of the line.
  * 
  * @author Stefan
  *
@@ -41,48 +44,19 @@ public class AudioProtocolPort implements PulseProtocolPort {
 	private static final int CLOSE_LOOP_WAIT = 100; 		// 100 ms
 	private static final int CLOSE_WAIT_LOOP_COUNT = 30; 	// 30 times
 	private static final float STANDARD_SAMPLE_FREQUENCY = 44100.0F;
-
-	/**
-	 * TheAuStream works as a sink for the sampled data, and also reads off the .au-header
-	 * from the beginning of the data stream before the data is fed to the AudioProtocolPort.
-	 * @author Stefan
-	 */
-	protected class AuStream extends OutputStream {
-		int m_HeaderCounter = 0;
-		int m_Header[] = new int[6];
-
-		@Override
-		public void write(int b) throws IOException {
-			// Read off the .AU header of the data stream. .AU-header consists of 6 words:
-			// <0x2e736e64> <Data Offset> <Data Size> <Encoding> <Sample Rate> <Channels>
-			if (m_HeaderCounter < 24) {
-				b = (b < 0) ? 256 + b : b;
-				if (((m_HeaderCounter % 4) == 0)) {
-					m_Header[m_HeaderCounter >> 2] = 0;
-				}
-				// Build up 32 bit words from four big endian ordered bytes each
-				m_Header[m_HeaderCounter >> 2] += b << ((3 -(m_HeaderCounter % 4)) * 8);
-				m_HeaderCounter++;
-				// If this was the last header byte, use the header info
-				if (m_HeaderCounter == 24) {
-					setSampleRate(m_Header[4]);
-				}
-			} else {
-				addRawSample(b);
-			}
-		}
-	}
+	private static final int DEFAULT_READ_BUFFER_SIZE = 4096;	// bytes
+	private static final long DECODER_IDLE_WAIT = 5000000;		// 5 ms in ns
 	
 	public enum Channel {MONO, RIGHT, LEFT};
-	protected AuStream m_outputStream = null;
-	protected AudioFileFormat.Type m_targetType;
-	protected AudioInputStream m_audioInputStream;
 	protected TargetDataLine m_TargetDataLine = null;
 	protected ProtocolSampler m_Sampler = null;
 	protected volatile int m_SourceNumber = 0;
 	protected volatile Mixer.Info m_Mixers[];
 	protected Channel m_Channel = Channel.MONO;
-	volatile boolean m_IsLeft = true;
+	private volatile int m_ReadBufferSize = DEFAULT_READ_BUFFER_SIZE;
+	private volatile int m_RingBufferSize = 0;
+	private volatile ByteRingBuffer m_RingBuffer = null;
+	private volatile int m_FrameSize = 1;
 	private float m_SampleRate = STANDARD_SAMPLE_FREQUENCY;
 	volatile boolean m_IsOpen = false;
 	private static Logger logger = Logger.getLogger(AudioProtocolPort.class.getName());
@@ -90,17 +64,24 @@ public class AudioProtocolPort implements PulseProtocolPort {
 	private Mixer m_Mixer; 
 
 	/**
-	 * This method is called internally when a new data sample is received from
-	 * the audio source. This method reads out the correct Left/Right samples
-	 * and forwards the correct samples to the Sampler.
+	 * Extracts the samples of the selected channel from a buffer of raw 8 bit data read
+	 * from the line. The samples are converted to signed values (-128 - 127).
 	 * 
-	 * @param sample
+	 * @param data raw data from the line
+	 * @param length number of bytes in data
+	 * @param format format of the raw data
+	 * @param samples destination of the extracted samples
+	 * @return number of extracted samples
 	 */
-	protected void addRawSample(int sample) {
-		m_IsLeft = !m_IsLeft;
-		if ((m_Channel != Channel.MONO) && (m_IsLeft == (m_Channel == Channel.LEFT))) return;
-		m_Sampler.addSample(sample);
-		m_LastReceivedTime = System.currentTimeMillis();
+	protected int extractSamples(byte data[], int length, AudioFormat format, int samples[]) {
+		int frameSize = format.getFrameSize();
+		int signFlip = AudioFormat.Encoding.PCM_UNSIGNED.equals(format.getEncoding()) ? 0x80 : 0;
+		int first = ((frameSize > 1) && (m_Channel == Channel.RIGHT)) ? 1 : 0;
+		int count = 0;
+		for (int i = first; i < length; i += frameSize) {
+			samples[count++] = (byte) (data[i] ^ signFlip);
+		}
+		return count;
 	}
 	
 	public float getSampleRate() {
@@ -166,9 +147,6 @@ public class AudioProtocolPort implements PulseProtocolPort {
 	 */
 	public synchronized int open(){
 
-		// Create the sample stream which will receive the data
-		m_outputStream = new AuStream();
-		
 		// Specify the audio format
 		AudioFormat	audioFormat = new AudioFormat(
 				m_SampleRate,
@@ -184,9 +162,6 @@ public class AudioProtocolPort implements PulseProtocolPort {
 		if (m_SourceNumber >= m_Mixers.length) m_SourceNumber = 0;
 		if (m_Mixers.length < 1) return 1;
 
-		// Specify audio format to AU
-		m_targetType = AudioFileFormat.Type.AU;
-
 		DataLine.Info	info = new DataLine.Info(TargetDataLine.class, audioFormat);
 		logger.finer("Opening mixer: " + m_Mixers[m_SourceNumber].getName());
 		try
@@ -194,8 +169,6 @@ public class AudioProtocolPort implements PulseProtocolPort {
 			// Try to get a TargetDataLine. It is used to read audio data
 			m_Mixer = AudioSystem.getMixer(m_Mixers[m_SourceNumber]);
 			m_TargetDataLine = (TargetDataLine) m_Mixer.getLine(info);
-			// Create the source stream which will read from the line
-			m_audioInputStream = new AudioInputStream(m_TargetDataLine);
 			// Open the TargetDataLine
 			m_TargetDataLine.open(audioFormat);
 			// Start the TargetDataLine. It tells the line that
@@ -214,11 +187,23 @@ public class AudioProtocolPort implements PulseProtocolPort {
 		}
 		
 		m_IsOpen = true;
-		m_IsLeft = true;
 		
 		// Start the thread that will actually read data from the line
-		Thread thread = new Thread("Sampler") {public void run() {readData();}};
-		thread.start();
+		final TargetDataLine line = m_TargetDataLine;
+		m_FrameSize = line.getFormat().getFrameSize();
+		if (m_RingBufferSize > 0) {
+			// Decode in a separate thread which is fed via the ring buffer
+			final ByteRingBuffer ringBuffer = new ByteRingBuffer(ringBufferCapacity(m_FrameSize));
+			m_RingBuffer = ringBuffer;
+			final Thread decoder = new Thread("SampleDecoder") {public void run() {decodeData(line.getFormat(), ringBuffer);}};
+			decoder.start();
+			Thread thread = new Thread("Sampler") {public void run() {captureData(line, ringBuffer, decoder);}};
+			thread.start();
+		} else {
+			m_RingBuffer = null;
+			Thread thread = new Thread("Sampler") {public void run() {readData(line);}};
+			thread.start();
+		}
 		
 		// Set the LastReceivedTime, so the port is counted as active if we ask immediately after open
 		// even if samples have not had time to arrive yet.
@@ -276,19 +261,9 @@ public class AudioProtocolPort implements PulseProtocolPort {
 			m_Mixer.close();
 		}
 		
-		// Close the input stream
-		try {
-			m_audioInputStream.close();
-		}
-		catch (IOException e) {
-			logger.warning("Error closing audio input stream used to sample:" + e.getMessage());
-		}		
-
 		// This is just an attempt to get around problems with reopening on Vista
 		m_Mixer = null;
 		m_TargetDataLine = null;
-		m_outputStream = null;
-		m_audioInputStream = null;
 		m_Mixers = null;
 		// Now force the system to Garbage Collect. Hopefully this will free any audio
 		// resources held by the corresponding Java objects.
@@ -304,23 +279,155 @@ public class AudioProtocolPort implements PulseProtocolPort {
 		
 	/**
 	 * This method is used by the separate read thread which reads data from
-	 * the audio source 
+	 * the audio source. The data is read a buffer at a time and the samples of the selected
+	 * channel are fed to the sampler as one block.
+	 * 
+	 * @param line the line to read from
 	 */
-	protected void readData() {
-		try
-		{
-			AudioSystem.write(
-					m_audioInputStream,
-					m_targetType,
-					m_outputStream);
+	protected void readData(TargetDataLine line) {
+		AudioFormat format = line.getFormat();
+		setSampleRate(format.getSampleRate());
+		byte buffer[] = new byte[readBufferLength(format.getFrameSize())];
+		int samples[] = new int[buffer.length];
+		while (m_IsOpen && line.isOpen()) {
+			int read = line.read(buffer, 0, buffer.length);
+			if (read <= 0) {
+				continue;
+			}
+			int count = extractSamples(buffer, read, format, samples);
+			ProtocolSamplers.addSamples(m_Sampler, samples, 0, count);
+			m_LastReceivedTime = System.currentTimeMillis();
 		}
-		catch (IOException e)
-		{
-			logger.warning("Failed sampling data: " + e.getMessage());
+		logger.info("Sampler Thread Exiting");
+	}
+
+	/**
+	 * This method is used by the read thread when decoding is done in a separate thread.
+	 * It only reads data from the line and puts it in the ring buffer.
+	 * 
+	 * @param line the line to read from
+	 * @param ringBuffer buffer to write the data to
+	 * @param decoder the decoding thread, which is woken when there is new data
+	 */
+	protected void captureData(TargetDataLine line, ByteRingBuffer ringBuffer, Thread decoder) {
+		byte buffer[] = new byte[readBufferLength(line.getFormat().getFrameSize())];
+		while (m_IsOpen && line.isOpen()) {
+			int read = line.read(buffer, 0, buffer.length);
+			if (read <= 0) {
+				continue;
+			}
+			ringBuffer.offer(buffer, 0, read);
+			LockSupport.unpark(decoder);
+			m_LastReceivedTime = System.currentTimeMillis();
 		}
+		LockSupport.unpark(decoder);
 		logger.info("Sampler Thread Exiting");
 	}
 
+	/**
+	 * This method is used by the decoding thread when decoding is done in a separate thread.
+	 * It takes the data from the ring buffer and feeds it to the sampler.
+	 * 
+	 * @param format format of the data in the ring buffer
+	 * @param ringBuffer buffer to read the data from
+	 */
+	protected void decodeData(AudioFormat format, ByteRingBuffer ringBuffer) {
+		setSampleRate(format.getSampleRate());
+		int frameSize = format.getFrameSize();
+		byte buffer[] = new byte[readBufferLength(frameSize)];
+		int samples[] = new int[buffer.length];
+		while (true) {
+			// Only read whole frames, so we keep track of the channels
+			int length = Math.min(ringBuffer.available(), buffer.length);
+			length -= length % frameSize;
+			if (length == 0) {
+				if (!m_IsOpen) {
+					break;
+				}
+				LockSupport.parkNanos(this, DECODER_IDLE_WAIT);
+				continue;
+			}
+			ringBuffer.read(buffer, 0, length);
+			int count = extractSamples(buffer, length, format, samples);
+			ProtocolSamplers.addSamples(m_Sampler, samples, 0, count);
+		}
+		logger.info("Decoder Thread Exiting");
+	}
+
+	private int readBufferLength(int frameSize) {
+		return Math.max(frameSize, m_ReadBufferSize - m_ReadBufferSize % frameSize);
+	}
+
+	/**
+	 * A block read from the line is dropped as a whole if it does not fit in the ring buffer,
+	 * so the ring buffer is made large enough for at least two read blocks
+	 */
+	int ringBufferCapacity(int frameSize) {
+		return Math.max(m_RingBufferSize, 2 * readBufferLength(frameSize));
+	}
+
+	/**
+	 * See setReadBufferSize
+	 * @return size of the read buffer in bytes
+	 */
+	public int getReadBufferSize() {
+		return m_ReadBufferSize;
+	}
+
+	/**
+	 * Set the size of the buffer used to read data from the line. A larger buffer gives
+	 * less overhead but adds latency. The new size takes effect the next time the port is opened.
+	 * @param readBufferSize size in bytes
+	 */
+	public void setReadBufferSize(int readBufferSize) {
+		if (readBufferSize < 2) return;
+		m_ReadBufferSize = readBufferSize;
+	}
+
+	/**
+	 * See setRingBufferSize
+	 * @return size of the ring buffer in bytes, 0 if decoding is done in the read thread
+	 */
+	public int getRingBufferSize() {
+		return m_RingBufferSize;
+	}
+
+	/**
+	 * Set the size of the ring buffer between the thread reading the line and the thread
+	 * decoding the samples. If the size is 0 (default), the samples are decoded directly in the
+	 * thread reading the line. The ring buffer is never made smaller than two read buffers,
+	 * see setReadBufferSize. The new size takes effect the next time the port is opened.
+	 * @param ringBufferSize size in bytes, or 0 to decode in the read thread
+	 */
+	public void setRingBufferSize(int ringBufferSize) {
+		if (ringBufferSize < 0) return;
+		m_RingBufferSize = ringBufferSize;
+	}
+
+	/**
+	 * @return Number of times data read from the line was dropped since the ring buffer was full
+	 */
+	public long getOverrunCount() {
+		ByteRingBuffer ringBuffer = m_RingBuffer;
+		return ringBuffer == null ? 0 : ringBuffer.getOverrunCount();
+	}
+
+	/**
+	 * @return Number of sample frames dropped since the ring buffer was full
+	 */
+	public long getDroppedSampleCount() {
+		ByteRingBuffer ringBuffer = m_RingBuffer;
+		return ringBuffer == null ? 0 : ringBuffer.getDroppedCount() / m_FrameSize;
+	}
+
+	/**
+	 * @return The highest fill level of the ring buffer in bytes
+	 */
+	public int getRingBufferHighWaterMark() {
+		ByteRingBuffer ringBuffer = m_RingBuffer;
+		return ringBuffer == null ? 0 : ringBuffer.getHighWaterMark();
+	}
+
 	public void setSource(int sourceNumber) {
 		m_SourceNumber = sourceNumber;
 	}
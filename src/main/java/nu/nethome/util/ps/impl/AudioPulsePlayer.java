@@ -19,8 +19,14 @@
 
 package nu.nethome.util.ps.impl;
 
+import nu.nethome.util.ps.PulseSequence;
+
 import javax.sound.sampled.*;
 import javax.sound.sampled.Mixer.Info;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.logging.Logger;
 
@@ -41,16 +47,20 @@ public class AudioPulsePlayer {
     private static Logger logger = Logger.getLogger(AudioPulsePlayer.class.getName());
 
     private Position m_CurPosition = Position.NORMAL;
-    private final int BUFFER_SIZE = 200000;
-    private final int CHANNELS = 2;
+    private static final int CHUNK_SIZE = 4096;
+    private final int CHANNELS = PulseRenderer.CHANNELS;
     protected float m_SampleRate = 38000.0F;
     SourceDataLine m_AudioLine = null;
-    int m_CurrentPos = 0;
     protected int m_CurrentSwing = 50;
     protected int m_CurrentSign = 1;
 
 
-    protected byte m_DataBuffer[] = new byte[BUFFER_SIZE];
+    private final byte m_ChunkBuffer[] = new byte[CHUNK_SIZE];
+    private PulseSequence m_LastSequence;
+    private boolean m_CarryRemainder = false;
+    private int m_Oversampling = 1;
+    private volatile double m_MaxTimingError = 0;
+    private volatile double m_AverageTimingError = 0;
     private Info[] m_Mixers;
     private int m_SourceNumber = 0;
     private boolean m_IsOpen = false;
@@ -194,74 +204,101 @@ public class AudioPulsePlayer {
      * @return true if the massage was successfully played, false if an error occurred.
      */
     public boolean playMessage(int startMessage[], int repeatMessage[], int repeat) {
+        return playMessage(new PulseSequence(startMessage, repeatMessage, repeat));
+    }
+
+    public boolean playMessage(int message[]) {
+        return playMessage(new int[0], message, 1);
+    }
+
+    /**
+     * Play a pulse sequence, see playMessage(int[], int[], int). The sequence is rendered
+     * a chunk at a time while the line is playing, so the memory used does not depend on the
+     * length of the message.
+     *
+     * @param sequence the pulses to play
+     * @return true if the massage was successfully played, false if an error occurred.
+     */
+    public boolean playMessage(PulseSequence sequence) {
         if (!m_IsOpen) {
             return false;
         }
-        m_CurrentPos = 0;
-
-        // Since we use the full swing of the output signal with both negative
-        // and positive values, we start with a ramp so the idle "0"-value of the line
-        // goes down to our "0"-value which is -SWING.
-        for (int p = 0; p < Math.abs(m_CurrentSwing); p += 2) {
-            m_DataBuffer[m_CurrentPos++] = (byte) (-p * m_CurrentSign);
-            m_DataBuffer[m_CurrentPos++] = (byte) (-p * m_CurrentSign);
-        }
-
-        // Encode the data pulses
-        boolean mark = true;
-        for (int pulse : startMessage) {
-            encodePulse(pulse, mark);
-            mark = !mark;
-        }
-        for (int i = 0; i < repeat; i++) {
-            for (int pulse : repeatMessage) {
-                encodePulse(pulse, mark);
-                mark = !mark;
+        m_LastSequence = sequence;
+        PulseRenderer renderer = createRenderer();
+        renderer.start(sequence);
+        int length = renderer.render(m_ChunkBuffer, 0, CHUNK_SIZE);
+        boolean started = false;
+        while (length > 0) {
+            // Write out as much data as possible without blocking before we actually
+            // start the data line so we don't risk starving the player before we have
+            // written any data
+            if (!started && m_AudioLine.available() < length) {
+                m_AudioLine.start();
+                started = true;
             }
+            m_AudioLine.write(m_ChunkBuffer, 0, length);
+            length = renderer.render(m_ChunkBuffer, 0, CHUNK_SIZE);
         }
-
-        // Check how much buffer space is available in the line
-        int avaliable = m_AudioLine.available();
-
-        // Write out as much data as possible without blocking before we actually
-        // start the data line so we don't risk starving the player before we have
-        // written any data
-        int prewrite = (m_CurrentPos > avaliable) ? avaliable : m_CurrentPos;
-        m_AudioLine.write(m_DataBuffer, 0, prewrite);
-
-        // Now start the line playing data
-        m_AudioLine.start();
-
-        // If we have any data left to write, now write that too
-        if (prewrite < m_CurrentPos) {
-            // Write the rest of the pulse data
-            m_AudioLine.write(m_DataBuffer, prewrite, m_CurrentPos - prewrite);
+        if (!started) {
+            m_AudioLine.start();
         }
 
         // Wait for all data to be written and then stop the line again, otherwise
         // it will starve and risk start sending garbage.
         m_AudioLine.drain();
         m_AudioLine.stop();
+        m_MaxTimingError = renderer.getMaxTimingError();
+        m_AverageTimingError = renderer.getAverageTimingError();
 
         return true;
     }
 
-    public boolean playMessage(int message[]) {
-        return playMessage(new int[0], message, 1);
+    /**
+     * Render a pulse sequence with the current sample rate and swing settings to a stream instead
+     * of to the audio line. The data is written in the same chunks as when it is played.
+     *
+     * @param sequence the pulses to render
+     * @param out      destination of the audio data
+     * @throws IOException if writing to the stream fails
+     */
+    public void render(PulseSequence sequence, OutputStream out) throws IOException {
+        PulseRenderer renderer = createRenderer();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        renderer.start(sequence);
+        int length;
+        while ((length = renderer.render(buffer, 0, CHUNK_SIZE)) > 0) {
+            out.write(buffer, 0, length);
+        }
     }
 
     /**
-     * Encode a pulse with the current swing settings into the data buffer
+     * Render a pulse sequence with the current sample rate and swing settings directly into
+     * a buffer. The position of the buffer is advanced past the rendered data.
      *
-     * @param length_us Length of the pulse in micro seconds
-     * @param mark      true if it is the mark flank, false if it is the space flank
+     * @param sequence the pulses to render
+     * @param buffer   destination of the audio data
+     * @return true if the whole sequence fitted in the buffer, false if it was truncated
      */
-    protected void encodePulse(int length_us, boolean mark) {
-        int intLength = (int) (m_SampleRate * length_us / 1000000.0);
-        for (int i = 0; i < intLength; i++) {
-            m_DataBuffer[m_CurrentPos++] = (byte) (mark ? m_CurrentSwing : -m_CurrentSwing);
-            m_DataBuffer[m_CurrentPos++] = (byte) (mark ? m_CurrentSwing : -m_CurrentSwing);
+    public boolean render(PulseSequence sequence, ByteBuffer buffer) {
+        PulseRenderer renderer = createRenderer();
+        renderer.start(sequence);
+        while (renderer.render(buffer) > 0) {
+            // Keep rendering until the sequence or the buffer is exhausted
         }
+        return renderer.isFinished();
+    }
+
+    /**
+     * Create a renderer with the current sample rate and swing settings. Each renderer
+     * keeps its own position, so one can be used per output device.
+     *
+     * @return a new renderer
+     */
+    public PulseRenderer createRenderer() {
+        PulseRenderer renderer = new PulseRenderer(m_SampleRate, m_CurrentSwing);
+        renderer.setCarryRemainder(m_CarryRemainder);
+        renderer.setOversampling(m_Oversampling);
+        return renderer;
     }
 
     public void setSource(int sourceNumber) {
@@ -303,16 +340,61 @@ public class AudioPulsePlayer {
     }
 
     /**
-     * This is only intended for module test purposes. It returns a copy of the
-     * internal data buffer which is used to play audio data.
+     * Carry the fraction of a sample lost when converting a pulse to samples over to the
+     * next pulse, so the timing error does not build up along long messages.
+     *
+     * @param carryRemainder true to carry, false to truncate each pulse (default)
+     */
+    public void setCarryRemainder(boolean carryRemainder) {
+        m_CarryRemainder = carryRemainder;
+    }
+
+    public boolean isCarryRemainder() {
+        return m_CarryRemainder;
+    }
+
+    /**
+     * Render flanks with a resolution of 1/oversampling sample, see PulseRenderer
+     *
+     * @param oversampling parts per sample, 1 for whole samples (default)
+     */
+    public void setOversampling(int oversampling) {
+        m_Oversampling = Math.max(1, oversampling);
+    }
+
+    public int getOversampling() {
+        return m_Oversampling;
+    }
+
+    /**
+     * @return largest flank timing error in the last played message in micro seconds
+     */
+    public double getMaxTimingError() {
+        return m_MaxTimingError;
+    }
+
+    /**
+     * @return average flank timing error in the last played message in micro seconds
+     */
+    public double getAverageTimingError() {
+        return m_AverageTimingError;
+    }
+
+    /**
+     * This is only intended for module test purposes. It returns the audio data of the
+     * last played message, rendered again with the current settings.
      *
-     * @return internal data buffer
+     * @return audio data of the last played message
      */
     public byte[] getDataBuffer() {
-        byte result[] = new byte[m_CurrentPos];
-        for (int i = 0; i < m_CurrentPos; i++) {
-            result[i] = m_DataBuffer[i];
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        if (m_LastSequence != null) {
+            try {
+                render(m_LastSequence, result);
+            } catch (IOException e) {
+                // Cannot happen with a ByteArrayOutputStream
+            }
         }
-        return result;
+        return result.toByteArray();
     }
 }
@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+/**
+ * A ProtocolSampler which can process a whole block of samples in one call. Data sources
+ * should not call this interface directly, but use {@link ProtocolSamplers#addSamples(ProtocolSampler, int[], int, int)}
+ * which falls back to calling {@link ProtocolSampler#addSample(int)} for each sample if the
+ * sampler does not implement this interface.
+ *
+ * @author Stefan
+ */
+public interface BlockProtocolSampler extends ProtocolSampler {
+    /**
+     * Add a block of data samples. The result shall be the same as calling
+     * {@link ProtocolSampler#addSample(int)} once for each sample in the block.
+     *
+     * @param samples buffer holding the samples
+     * @param offset  index of the first sample in the buffer
+     * @param length  number of samples to add
+     */
+    void addSamples(int[] samples, int offset, int length);
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock free ring buffer of bytes for exactly one producer thread and one consumer thread.
+ * It is used to decouple a thread reading data from a device from the thread that
+ * processes the data. If the buffer is full when the producer offers a block, the whole block
+ * is dropped and counted as an overrun, so the producer never has to wait.
+ *
+ * @author Stefan
+ */
+public class ByteRingBuffer {
+
+    private final byte[] buffer;
+    private final int mask;
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+
+    // Statistics, only updated by the producer
+    private volatile long overrunCount = 0;
+    private volatile long droppedCount = 0;
+    private volatile int highWaterMark = 0;
+
+    /**
+     * @param capacity Minimum capacity in bytes. The real capacity is rounded up to a power of two.
+     */
+    public ByteRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Bad ring buffer capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * @return Number of bytes currently in the buffer
+     */
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /**
+     * Add a block of data to the buffer. Must only be called by the producer thread.
+     *
+     * @param data   data to add
+     * @param offset start of the block in data
+     * @param length number of bytes to add
+     * @return true if the block was added, false if it was dropped since the buffer was full
+     */
+    public boolean offer(byte[] data, int offset, int length) {
+        long write = writePosition.get();
+        int fill = (int) (write - readPosition.get());
+        if (length > buffer.length - fill) {
+            overrunCount++;
+            droppedCount += length;
+            return false;
+        }
+        int start = (int) write & mask;
+        int firstPart = Math.min(length, buffer.length - start);
+        System.arraycopy(data, offset, buffer, start, firstPart);
+        System.arraycopy(data, offset + firstPart, buffer, 0, length - firstPart);
+        writePosition.lazySet(write + length);
+        if (fill + length > highWaterMark) {
+            highWaterMark = fill + length;
+        }
+        return true;
+    }
+
+    /**
+     * Read data from the buffer. Must only be called by the consumer thread.
+     *
+     * @param data   destination of the read data
+     * @param offset where in data to start writing
+     * @param length maximum number of bytes to read
+     * @return number of bytes read, 0 if the buffer is empty
+     */
+    public int read(byte[] data, int offset, int length) {
+        long read = readPosition.get();
+        int count = Math.min(length, (int) (writePosition.get() - read));
+        if (count <= 0) {
+            return 0;
+        }
+        int start = (int) read & mask;
+        int firstPart = Math.min(count, buffer.length - start);
+        System.arraycopy(buffer, start, data, offset, firstPart);
+        System.arraycopy(buffer, 0, data, offset + firstPart, count - firstPart);
+        readPosition.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * @return Number of times a block was dropped since the buffer was full
+     */
+    public long getOverrunCount() {
+        return overrunCount;
+    }
+
+    /**
+     * @return Total number of bytes dropped since the buffer was full
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return The highest number of bytes that has been stored in the buffer at the same time
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+}
@@ -21,6 +21,9 @@ package nu.nethome.util.ps.impl;
 
 import gnu.io.*;
 import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoders;
+import nu.nethome.util.ps.PulseSequence;
+import nu.nethome.util.ps.PulseTrain;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -28,6 +31,9 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.TooManyListenersException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * The CULProtocolPort interfaces with an USB radio transceiver and sends and receives data
@@ -38,7 +44,7 @@ import java.util.TooManyListenersException;
  * @author Stefan
  *
  */
-public class CULProtocolPort implements SerialPortEventListener, Runnable, PulseProtocolPort {
+public class CULProtocolPort implements SerialPortEventListener, Runnable, PulseProtocolPort, PulseTransmitter {
 
 	// Addresses of the CC1101 control registers
 	protected static final int IOCFG2     = 0x00;
@@ -115,6 +121,9 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
 	};
 	
 	private static final int READ_BUFFER_SIZE = 40;
+	private static final long DECODER_IDLE_WAIT = 5000000;		// 5 ms in ns
+	private static final byte HEX_DIGITS[] = {'0', '1', '2', '3', '4', '5', '6', '7',
+		'8', '9', 'A', 'B', 'C', 'D', 'E', 'F'};
 	private static final double CRYSTAL_FREQUENCY = 26000000;
 	protected int m_ReadBufferPointer = 0;
 	String m_ComPort = "COM4";
@@ -126,6 +135,7 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
     protected CommPortIdentifier portId = null;
 	protected boolean m_IsOpen = false;
     protected byte[] m_ReadBuffer = new byte[READ_BUFFER_SIZE];
+    private byte[] m_InputBuffer = new byte[400];
 	private ProtocolDecoder m_Decoder;
 	private char m_LastCommand = 'x';
 	private double m_AddForward = 0;
@@ -135,6 +145,25 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
 	private double m_PulseLengthCompensation = 0;
 	private int m_Spikes = 0;
 	private int m_Mode = 0;
+	private PulseTrain m_Pulses = new PulseTrain();
+
+	// Receive queue, used when decoding in a separate thread
+	private volatile int m_ReceiveQueueSize = 0;
+	private volatile ByteRingBuffer m_ReceiveQueue = null;
+	private volatile Thread m_DecoderThread = null;
+	private volatile long m_QueueFilledTime = 0;
+	private volatile long m_LastQueueLatency = 0;
+	private volatile long m_MaxQueueLatency = 0;
+
+	// Transmission
+	private final Object m_TransmitLock = new Object();
+	private byte[] m_TransmitBuffer = new byte[1024];
+	private int m_TransmitLength;
+	private volatile long m_LastTransmitLatency = 0;
+	private volatile long m_MaxTransmitLatency = 0;
+	private final Semaphore m_Acknowledges = new Semaphore(0);
+	private volatile int m_AcknowledgeTimeout = 0;
+	private volatile long m_AcknowledgeTimeouts = 0;
 	
 	// Radio Settings
 	private double m_RadioFrequency = 433920000.0;
@@ -193,6 +222,7 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
 			return 3;        	
         }
         try {
+            startReceiveQueue();
             m_SerialPort.addEventListener(this);
         } catch (TooManyListenersException e) {
         	System.out.print("COM Port " + m_ComPort + " has too many listeners" + e);
@@ -238,6 +268,7 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
             closeSerialPort();
             m_SerialPort = null;
     	}
+    	stopReceiveQueue();
     }
 
     private void closeSerialPort() {
@@ -253,7 +284,16 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
 	}
 
 
+	/**
+	 * When the port uses a receive queue, this is the decoder thread which feeds the queued
+	 * data to the decoder. Otherwise the method just waits a while and returns.
+	 */
 	public void run() {
+		Thread current = Thread.currentThread();
+		if (current instanceof DecoderThread) {
+			decodeQueuedData((DecoderThread) current);
+			return;
+		}
         try {
             Thread.sleep(20000);
         } catch (InterruptedException e) {
@@ -261,7 +301,104 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
         }
 	}
 
-    public synchronized void serialEvent(SerialPortEvent event) {
+	/**
+	 * The decoder thread, which runs the run method of the port
+	 */
+	private class DecoderThread extends Thread {
+		final ByteRingBuffer queue;
+
+		DecoderThread(ByteRingBuffer queue) {
+			super(CULProtocolPort.this, "CULDecoder");
+			this.queue = queue;
+		}
+	}
+
+	/**
+	 * Create the receive queue and start the decoder thread, if a receive queue size is set.
+	 * Each read from the device is queued as a whole or dropped, so the queue is made large
+	 * enough for at least two full reads.
+	 */
+	protected void startReceiveQueue() {
+		stopReceiveQueue();
+		if (m_ReceiveQueueSize > 0) {
+			m_ReceiveQueue = new ByteRingBuffer(Math.max(m_ReceiveQueueSize, 2 * m_InputBuffer.length));
+			m_DecoderThread = new DecoderThread(m_ReceiveQueue);
+			m_DecoderThread.start();
+		}
+	}
+
+	/**
+	 * Stop the decoder thread after it has decoded all queued data
+	 */
+	protected void stopReceiveQueue() {
+		Thread decoder = m_DecoderThread;
+		m_ReceiveQueue = null;
+		m_DecoderThread = null;
+		if (decoder != null) {
+			LockSupport.unpark(decoder);
+			try {
+				decoder.join(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Loop of the decoder thread. Takes data from the receive queue and feeds it to the decoder
+	 * until the thread is stopped.
+	 */
+	private void decodeQueuedData(DecoderThread self) {
+		ByteRingBuffer queue = self.queue;
+		byte buffer[] = new byte[m_InputBuffer.length];
+		while (true) {
+			long filledTime = m_QueueFilledTime;
+			int length = queue.read(buffer, 0, buffer.length);
+			if (length > 0) {
+				processReceivedBytes(buffer, length);
+				if (queue.available() == 0) {
+					updateQueueLatency(System.nanoTime() - filledTime);
+				}
+			} else if (m_DecoderThread != self) {
+				break;
+			} else {
+				LockSupport.parkNanos(this, DECODER_IDLE_WAIT);
+			}
+		}
+	}
+
+	private void updateQueueLatency(long latency) {
+		m_LastQueueLatency = latency;
+		if (latency > m_MaxQueueLatency) {
+			m_MaxQueueLatency = latency;
+		}
+	}
+
+	/**
+	 * Read all available data from the device and put it in the receive queue. Runs in the
+	 * serial event thread.
+	 */
+	protected void queueReceivedData(ByteRingBuffer queue) {
+		try {
+			while (m_InputStream.available() > 0) {
+				int numBytes = m_InputStream.read(m_InputBuffer);
+				if (numBytes <= 0) {
+					break;
+				}
+				if (queue.available() == 0) {
+					m_QueueFilledTime = System.nanoTime();
+				}
+				if (!queue.offer(m_InputBuffer, 0, numBytes)) {
+					System.out.println("Overflow!");
+				}
+			}
+		} catch (IOException e){
+			System.out.print("Error reading data from serial port " + e);
+		}
+		LockSupport.unpark(m_DecoderThread);
+	}
+
+    public void serialEvent(SerialPortEvent event) {
         switch(event.getEventType()) {
         case SerialPortEvent.BI:
         case SerialPortEvent.OE:
@@ -274,61 +411,103 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
         case SerialPortEvent.OUTPUT_BUFFER_EMPTY:
             break;
         case SerialPortEvent.DATA_AVAILABLE:
-
-        	try {
-        		byte[] readBuffer = new byte[400];
-
-        		while (m_InputStream.available() > 0) {
-        			int numBytes = m_InputStream.read(readBuffer);
-        			for (int i = 0; i < numBytes; i++){
-        				m_ReadBuffer[m_ReadBufferPointer++] = readBuffer[i];
-        				if ((readBuffer[i] == 0x0A) || (m_ReadBufferPointer == READ_BUFFER_SIZE - 1)){
-        					m_ReadBuffer[m_ReadBufferPointer] = 0;
-        					String result = new String(m_ReadBuffer, 0, m_ReadBufferPointer - 2);
-        					//System.out.println(result);
-        					if (m_ReadBufferPointer == READ_BUFFER_SIZE - 1) {
-        						System.out.println("Overflow!");
-        					}
-        					m_ReadBufferPointer = 0;
-        					try {
-        						analyzeReceivedCommand(result);
-        					}
-        					catch (Exception o) {
-        						// Problem down in the decoders!
-        						o.printStackTrace();
-        					}
-        				}
-        				// NYI - Process received bytes
-        			}
-        		}
-        	} catch (IOException e){
-        		System.out.print("Error reading data from serial port " + e);
+        	ByteRingBuffer queue = m_ReceiveQueue;
+        	if (queue != null) {
+        		queueReceivedData(queue);
+        	} else {
+        		readReceivedData();
         	}
         	break;
         }
     }
 
+	/**
+	 * Read and process all data available from the device
+	 */
+    protected synchronized void readReceivedData() {
+    	try {
+    		while (m_InputStream.available() > 0) {
+    			int numBytes = m_InputStream.read(m_InputBuffer);
+    			processReceivedBytes(m_InputBuffer, numBytes);
+    		}
+    	} catch (IOException e){
+    		System.out.print("Error reading data from serial port " + e);
+    	}
+    }
+
+	/**
+	 * Split received bytes into lines and analyze each complete line. The pulses found are
+	 * given to the decoder as one pulse train. No objects are allocated when processing
+	 * normal pulse data.
+	 * @param data buffer holding the received bytes
+	 * @param length number of bytes in the buffer
+	 */
+    protected void processReceivedBytes(byte[] data, int length) {
+    	for (int i = 0; i < length; i++) {
+    		byte received = data[i];
+    		if (received == 0x0A) {
+    			analyzeReceivedLine(m_ReadBuffer, trimmedLineLength());
+    			m_ReadBufferPointer = 0;
+    		} else if (m_ReadBufferPointer == READ_BUFFER_SIZE) {
+    			System.out.println("Overflow!");
+    			m_ReadBufferPointer = 0;
+    		} else {
+    			m_ReadBuffer[m_ReadBufferPointer++] = received;
+    		}
+    	}
+    	parseReceivedPulses();
+    }
+
+    private int trimmedLineLength() {
+    	int length = m_ReadBufferPointer;
+    	while (length > 0 && m_ReadBuffer[length - 1] == 0x0D) {
+    		length--;
+    	}
+    	return length;
+    }
+
 	/**
 	 * Analyze a command/event received from the CUL device
-	 * @param commandString Command string to analyze
+	 * @param line buffer holding the line, without line terminator
+	 * @param length length of the line
 	 */
-    private void analyzeReceivedCommand(String commandString) {
-    	if (commandString.length() < 1) return; // Make sure string is not empty
-    	char command = commandString.charAt(0);
+    private void analyzeReceivedLine(byte[] line, int length) {
+    	if (length < 1) return; // Make sure line is not empty
+    	char command = (char) line[0];
     	
     	// Check if it is acknowledgment of command
     	if (command == 'o') {
-    		acknowledgeCommand(commandString);
+    		acknowledgeCommand(new String(line, 0, length));
     		return;
     	}
 
     	// Check if this is valid pulse data
-    	if (((command != 'm') && (command != 's')) || (commandString.length() != 5)) {
-    		System.out.println("Error - unknown command: " + commandString);
+    	int pulse = (length == 5) ? parseHex(line, 1, 4) : -1;
+    	if (((command != 'm') && (command != 's')) || (pulse < 0)) {
+    		System.out.println("Error - unknown command: " + new String(line, 0, length));
     		return;
     	}
+    	analyzeReceivedPulse(command, pulse);
+    }
+
+	/**
+	 * Parse hexadecimal digits
+	 * @return the value or -1 if there are non hex characters
+	 */
+    private static int parseHex(byte[] data, int offset, int digits) {
+    	int result = 0;
+    	for (int i = offset; i < offset + digits; i++) {
+    		int digit = Character.digit(data[i], 16);
+    		if (digit < 0) {
+    			return -1;
+    		}
+    		result = (result << 4) | digit;
+    	}
+    	return result;
+    }
 
-    	double pulseLength = Integer.parseInt(commandString.substring(1), 16);
+    private void analyzeReceivedPulse(char command, int pulse) {
+    	double pulseLength = pulse;
     	// System.out.println(Character.toString(command) + Double.toString(pulseLength) + " us");
 
     	// Temporary - currently device signals overflow with this specific pulse value
@@ -367,15 +546,16 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
     }
     
     /**
-     * Received ack on a command. Currently does nothing
+     * Received ack on a command. Releases a transmission waiting for acknowledge
      * @param commandString
      */
     private void acknowledgeCommand(String commandString) {
-		
+		m_Acknowledges.release();
 	}
 
 	/**
-     * Send a processed pulse to the decoders
+     * Collect a processed pulse. The collected pulses are given to the decoders when all
+     * received data has been processed.
      * @param pulseLength
      * @param isMark
      */
@@ -383,9 +563,25 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
     	
     	pulseLength += isMark ? m_PulseLengthCompensation  : -m_PulseLengthCompensation;
     	
-		// Give the pulse to the decoder
-		m_Decoder.parse(pulseLength, isMark);
+		m_Pulses.add(pulseLength, isMark);
     }
+
+	/**
+	 * Give the collected pulses to the decoder as one pulse train
+	 */
+	private void parseReceivedPulses() {
+		if (m_Pulses.isEmpty()) {
+			return;
+		}
+		try {
+			ProtocolDecoders.parse(m_Decoder, m_Pulses);
+		}
+		catch (Exception o) {
+			// Problem down in the decoders!
+			o.printStackTrace();
+		}
+		m_Pulses.clear();
+	}
     
     public String[] getPortNames() {
     	ArrayList<String> result = new ArrayList<String>();
@@ -408,6 +604,15 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
 		m_ComPort = serialPort;
 	}
 	
+	/**
+	 * Transmit a pulse sequence, the repeats are not copied
+	 * @param sequence pulses to transmit
+	 * @return True if successful
+	 */
+	public boolean playMessage(PulseSequence sequence) {
+		return playMessage(sequence.getMessage(), sequence.getRepeatCount(), sequence.getRepeatOffset());
+	}
+
 	/**
 	 * Transmit the list of pulses (in microseconds) via the CUL device
 	 * @param message List of pulse lengths in microseconds, beginning with a mark pulse
@@ -416,31 +621,115 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
 	 * @return True if successful 
 	 */
 	public boolean playMessage(int message[], int repeat, int repeatOffset) {
+		synchronized (m_TransmitLock) {
+			long start = System.nanoTime();
+			int length = encodeMessage(message, repeat, repeatOffset);
+			m_Acknowledges.drainPermits();
+			boolean result = writeBytes(m_TransmitBuffer, length);
+			if (result && m_AcknowledgeTimeout > 0) {
+				result = waitForAcknowledge();
+			}
+			updateTransmitLatency(System.nanoTime() - start);
+			return result;
+		}
+	}
+
+	/**
+	 * Encode the complete transmit sequence in the transmit buffer. The sequence is the same
+	 * as the lines "E", "AmmmmSSSS" for each pair of pulses and "Srr[mmnnoo]".
+	 * @return number of bytes in the transmit buffer
+	 */
+	private int encodeMessage(int message[], int repeat, int repeatOffset) {
+		// "E" line + pulse lines of at most 1 command character + 2 * 8 hex digits + CR LF
+		// + "S" line with at most 4 * 8 hex digits
+		int maxLength = 3 + ((message.length + 1) / 2) * 19 + 35;
+		if (m_TransmitBuffer.length < maxLength) {
+			m_TransmitBuffer = new byte[maxLength];
+		}
+		m_TransmitLength = 0;
 
 		// Reset the transmit buffer
-		writeLine("E");
-		
+		appendCommand('E');
+		appendLineEnd();
+
 		// Loop through the flanks in the message
 		for (int i = 0; i < message.length; i++) {
 			int mark = message[i++];
 			// Fill with 0 if uneven number of flanks
-			int space = i < message.length ? message[i] : 0; 
-			String command = String.format("A%04X%04X", mark, space);
+			int space = i < message.length ? message[i] : 0;
 			// Add the pulse to the transmit buffer
-			writeLine(command);
+			appendCommand('A');
+			appendHex(mark, 4);
+			appendHex(space, 4);
+			appendLineEnd();
 		}
 		// Transmit the message, check if it should be modulated
+		appendCommand('S');
+		appendHex(repeat, 2);
 		if ((m_ModulationOnPeriod > 0) || (repeatOffset > 0)) {
 			// Yes, also write modulation parameters
-			writeLine(String.format("S%02X%02X%02X%02X", repeat, m_ModulationOnPeriod, m_ModulationOffPeriod, repeatOffset));
-		} else {
-			// No modulation, just specify repeat
-			writeLine(String.format("S%02X", repeat));
+			appendHex(m_ModulationOnPeriod, 2);
+			appendHex(m_ModulationOffPeriod, 2);
+			appendHex(repeatOffset, 2);
+		}
+		appendLineEnd();
+		return m_TransmitLength;
+	}
+
+	private boolean waitForAcknowledge() {
+		try {
+			if (m_Acknowledges.tryAcquire(m_AcknowledgeTimeout, TimeUnit.MILLISECONDS)) {
+				return true;
+			}
+			m_AcknowledgeTimeouts++;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	private void appendCommand(char command) {
+		m_TransmitBuffer[m_TransmitLength++] = (byte) command;
+	}
+
+	private void appendLineEnd() {
+		m_TransmitBuffer[m_TransmitLength++] = '\r';
+		m_TransmitBuffer[m_TransmitLength++] = '\n';
+	}
+
+	/**
+	 * Append a value as upper case hex digits, same result as String.format("%0nX", value)
+	 * @param value value to append
+	 * @param digits minimum number of digits
+	 */
+	private void appendHex(int value, int digits) {
+		int significantDigits = (35 - Integer.numberOfLeadingZeros(value)) / 4;
+		for (int i = Math.max(digits, significantDigits) - 1; i >= 0; i--) {
+			m_TransmitBuffer[m_TransmitLength++] = HEX_DIGITS[(value >>> (i * 4)) & 0xF];
+		}
+	}
+
+	private void updateTransmitLatency(long latency) {
+		m_LastTransmitLatency = latency;
+		if (latency > m_MaxTransmitLatency) {
+			m_MaxTransmitLatency = latency;
+		}
+	}
+
+	/**
+	 * Write bytes to the serial port
+	 * @param data buffer with data to write
+	 * @param length number of bytes to write
+	 * @return true if the data was written
+	 */
+	protected boolean writeBytes(byte[] data, int length) {
+		try {
+			m_OutputStream.write(data, 0, length);
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
 		}
-		
-		// NYI - Wait for confirmation
-		
-		return true;
 	}
 
 	/**
@@ -619,6 +908,119 @@ public class CULProtocolPort implements SerialPortEventListener, Runnable, Pulse
 	public void setMode(int mode) {
 		m_Mode = mode;
 	}
-	
 
+	/**
+	 * See setReceiveQueueSize
+	 * @return size of the receive queue in bytes, 0 if decoding is done in the serial event thread
+	 */
+	public int getReceiveQueueSize() {
+		return m_ReceiveQueueSize;
+	}
+
+	/**
+	 * Set the size of the receive queue. If the size is larger than 0, the serial event thread only
+	 * puts the received data in the queue and a separate decoder thread feeds it to the decoder.
+	 * Then a slow decoder cannot stall the reading from the device. The queue is never made smaller
+	 * than two reads from the device, 800 bytes. Takes effect at next open.
+	 * @param receiveQueueSize size in bytes, or 0 to decode in the serial event thread
+	 */
+	public void setReceiveQueueSize(int receiveQueueSize) {
+		if (receiveQueueSize < 0) return;
+		m_ReceiveQueueSize = receiveQueueSize;
+	}
+
+	/**
+	 * @return Number of bytes currently waiting in the receive queue
+	 */
+	public int getReceiveQueueDepth() {
+		ByteRingBuffer queue = m_ReceiveQueue;
+		return queue == null ? 0 : queue.available();
+	}
+
+	/**
+	 * @return The highest number of bytes that has been waiting in the receive queue
+	 */
+	public int getReceiveQueueHighWaterMark() {
+		ByteRingBuffer queue = m_ReceiveQueue;
+		return queue == null ? 0 : queue.getHighWaterMark();
+	}
+
+	/**
+	 * @return Number of times received data was dropped since the receive queue was full
+	 */
+	public long getOverrunCount() {
+		ByteRingBuffer queue = m_ReceiveQueue;
+		return queue == null ? 0 : queue.getOverrunCount();
+	}
+
+	/**
+	 * @return Number of received bytes dropped since the receive queue was full
+	 */
+	public long getDroppedByteCount() {
+		ByteRingBuffer queue = m_ReceiveQueue;
+		return queue == null ? 0 : queue.getDroppedCount();
+	}
+
+	/**
+	 * The queue latency is the time from when data is put in an empty receive queue until
+	 * the queue has been emptied by the decoder thread.
+	 * @return Latest queue latency in uS
+	 */
+	public long getLastQueueLatency() {
+		return m_LastQueueLatency / 1000;
+	}
+
+	/**
+	 * See getLastQueueLatency
+	 * @return The highest queue latency in uS
+	 */
+	public long getMaxQueueLatency() {
+		return m_MaxQueueLatency / 1000;
+	}
+
+	/**
+	 * The transmit latency is the time from when playMessage is called until the complete transmit
+	 * sequence has been written to the device, or until the device has acknowledged it if
+	 * an acknowledge timeout is set. The device starts the transmission when it gets the
+	 * last command of the sequence.
+	 * @return Latest transmit latency in uS
+	 */
+	public long getLastTransmitLatency() {
+		return m_LastTransmitLatency / 1000;
+	}
+
+	/**
+	 * See getLastTransmitLatency
+	 * @return The highest transmit latency in uS
+	 */
+	public long getMaxTransmitLatency() {
+		return m_MaxTransmitLatency / 1000;
+	}
+
+	/**
+	 * See setAcknowledgeTimeout
+	 * @return Acknowledge timeout in ms, 0 if playMessage does not wait for acknowledge
+	 */
+	public int getAcknowledgeTimeout() {
+		return m_AcknowledgeTimeout;
+	}
+
+	/**
+	 * If the acknowledge timeout is set, playMessage waits until the CUL device acknowledges
+	 * the transmission with an "o" line, and returns false if that does not happen within the
+	 * timeout. Must not be used if playMessage is called from a decoder, since the acknowledge is
+	 * received by the same thread when the port decodes without receive queue.
+	 * @param acknowledgeTimeout Acknowledge timeout in ms, 0 to not wait for acknowledge
+	 */
+	public void setAcknowledgeTimeout(int acknowledgeTimeout) {
+		if (acknowledgeTimeout < 0) return;
+		m_AcknowledgeTimeout = acknowledgeTimeout;
+	}
+
+	/**
+	 * @return Number of transmissions which were not acknowledged within the acknowledge timeout
+	 */
+	public long getAcknowledgeTimeouts() {
+		return m_AcknowledgeTimeouts;
+	}
 }
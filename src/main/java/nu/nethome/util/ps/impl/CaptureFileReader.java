@@ -0,0 +1,423 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.PulseTrain;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Reads capture files written by {@link CaptureFileWriter}, see {@link CaptureFormat}. When the file is
+ * opened only the chunk headers are read, to build an index from sample positions to chunks. Samples and
+ * pulses are then read through memory mapped regions of the file, so captures much larger than the heap
+ * can be searched and replayed from any position. Samples and pulses have a region each, so replaying
+ * does not remap the file when it alternates between them. A chunk which was not completely written at the end of
+ * the file is ignored.
+ *
+ * @author Stefan
+ */
+public class CaptureFileReader implements Closeable {
+
+    private static Logger logger = Logger.getLogger(CaptureFileReader.class.getName());
+
+    public static final int DEFAULT_REGION_SIZE = 1 << 28;
+    private static final int REPLAY_BLOCK_SIZE = 4096;
+
+    /**
+     * Positions and sizes of the chunks of one type
+     */
+    private static class ChunkIndex {
+        long payloadOffsets[] = new long[16];
+        long firstPositions[] = new long[16];
+        int counts[] = new int[16];
+        int size = 0;
+        long total = 0;
+
+        void add(long payloadOffset, long firstPosition, int count) {
+            if (size == counts.length) {
+                payloadOffsets = Arrays.copyOf(payloadOffsets, size * 2);
+                firstPositions = Arrays.copyOf(firstPositions, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            payloadOffsets[size] = payloadOffset;
+            firstPositions[size] = firstPosition;
+            counts[size] = count;
+            size++;
+            total += count;
+        }
+
+        /**
+         * @return index of the last chunk starting before the position, or 0 if there is none
+         */
+        int findBefore(long position) {
+            int low = 0;
+            int high = size - 1;
+            int result = 0;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (firstPositions[middle] < position) {
+                    result = middle;
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A mapped part of the file, which is moved when data outside of it is read
+     */
+    private class Region {
+        private MappedByteBuffer buffer;
+        private long start = 0;
+        private long end = 0;
+
+        /**
+         * Map the region so it contains the specified range, if it does not already
+         */
+        MappedByteBuffer map(long offset, int length) throws IOException {
+            if (buffer == null || offset < start || offset + length > end) {
+                long size = Math.max(length, Math.min(regionSize, fileSize - offset));
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+                start = offset;
+                end = offset + size;
+            }
+            return buffer;
+        }
+
+        /**
+         * @return index in the mapped buffer of the offset in the file
+         */
+        int index(long offset) {
+            return (int) (offset - start);
+        }
+
+        void release() {
+            buffer = null;
+        }
+    }
+
+    /**
+     * Walks through the pulses in order
+     */
+    private class PulseCursor {
+        int chunk;
+        int index = 0;
+
+        PulseCursor(long fromPosition) throws IOException {
+            chunk = pulses.findBefore(fromPosition);
+            while (hasNext() && position() < fromPosition) {
+                next();
+            }
+        }
+
+        boolean hasNext() {
+            return chunk < pulses.size;
+        }
+
+        private long offset() {
+            return pulses.payloadOffsets[chunk] + (long) index * CaptureFormat.PULSE_SIZE;
+        }
+
+        long position() throws IOException {
+            long offset = offset();
+            return pulseRegion.map(offset, CaptureFormat.PULSE_SIZE).getLong(pulseRegion.index(offset));
+        }
+
+        double length() throws IOException {
+            long offset = offset();
+            return pulseRegion.map(offset, CaptureFormat.PULSE_SIZE).getDouble(pulseRegion.index(offset) + 8);
+        }
+
+        boolean isMark() throws IOException {
+            long offset = offset();
+            return pulseRegion.map(offset, CaptureFormat.PULSE_SIZE).get(pulseRegion.index(offset) + 16) != 0;
+        }
+
+        void next() {
+            if (++index == pulses.counts[chunk]) {
+                chunk++;
+                index = 0;
+            }
+        }
+    }
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int version;
+    private final int sampleRate;
+    private final long creationTime;
+    private final String source;
+    private final ChunkIndex samples = new ChunkIndex();
+    private final ChunkIndex pulses = new ChunkIndex();
+    private final int regionSize;
+    private final Region sampleRegion = new Region();
+    private final Region pulseRegion = new Region();
+
+    /**
+     * Open a capture file and build the index of it
+     *
+     * @param file file to open
+     * @throws IOException if the file could not be read or is not a valid capture file
+     */
+    public CaptureFileReader(File file) throws IOException {
+        this(file, DEFAULT_REGION_SIZE);
+    }
+
+    /**
+     * Open a capture file and build the index of it
+     *
+     * @param file       file to open
+     * @param regionSize size in bytes of the parts of the file which are mapped into memory
+     * @throws IOException if the file could not be read or is not a valid capture file
+     */
+    public CaptureFileReader(File file, int regionSize) throws IOException {
+        if (regionSize <= 0) {
+            throw new IllegalArgumentException("Region size must be positive");
+        }
+        this.regionSize = regionSize;
+        channel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            fileSize = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(CaptureFormat.HEADER_SIZE);
+            readFully(header, 0);
+            for (byte magic : CaptureFormat.MAGIC) {
+                if (header.get() != magic) {
+                    throw new StreamCorruptedException("Not a capture file");
+                }
+            }
+            version = header.getInt();
+            if (version > CaptureFormat.VERSION) {
+                throw new StreamCorruptedException("Unsupported capture file version " + version);
+            }
+            int headerSize = header.getInt();
+            if (headerSize < CaptureFormat.HEADER_SIZE) {
+                throw new StreamCorruptedException("Bad capture file header size " + headerSize);
+            }
+            sampleRate = header.getInt();
+            creationTime = header.getLong();
+            byte name[] = new byte[CaptureFormat.SOURCE_SIZE];
+            header.get(name);
+            int nameLength = 0;
+            while (nameLength < name.length && name[nameLength] != 0) {
+                nameLength++;
+            }
+            source = new String(name, 0, nameLength, CaptureFormat.UTF8);
+            buildIndex(headerSize);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void buildIndex(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CaptureFormat.CHUNK_HEADER_SIZE);
+        while (offset + CaptureFormat.CHUNK_HEADER_SIZE <= fileSize) {
+            header.clear();
+            readFully(header, offset);
+            int type = header.getInt();
+            int count = header.getInt();
+            long firstPosition = header.getLong();
+            int payloadLength = header.getInt();
+            long payloadOffset = offset + CaptureFormat.CHUNK_HEADER_SIZE;
+            int itemSize = (type == CaptureFormat.SAMPLE_CHUNK) ? CaptureFormat.SAMPLE_SIZE : CaptureFormat.PULSE_SIZE;
+            if ((type != CaptureFormat.SAMPLE_CHUNK && type != CaptureFormat.PULSE_CHUNK) || count <= 0 ||
+                    payloadLength > CaptureFormat.MAX_PAYLOAD || payloadLength != count * itemSize ||
+                    (type == CaptureFormat.SAMPLE_CHUNK && firstPosition != samples.total)) {
+                throw new StreamCorruptedException("Bad chunk at offset " + offset);
+            }
+            if (payloadOffset + payloadLength > fileSize) {
+                logger.info("Ignoring incomplete chunk at end of capture file");
+                break;
+            }
+            (type == CaptureFormat.SAMPLE_CHUNK ? samples : pulses).add(payloadOffset, firstPosition, count);
+            offset = payloadOffset + payloadLength;
+        }
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return sample rate in Hz
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return time when the file was created in ms since the epoch
+     */
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * @return name of the signal source
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public long getSampleCount() {
+        return samples.total;
+    }
+
+    public long getPulseCount() {
+        return pulses.total;
+    }
+
+    /**
+     * @param milliseconds time from the start of the capture
+     * @return position of the sample at that time
+     */
+    public long getPosition(long milliseconds) {
+        return milliseconds * sampleRate / 1000;
+    }
+
+    /**
+     * @param position sample position
+     * @return time of the sample from the start of the capture in ms
+     */
+    public long getTime(long position) {
+        return sampleRate == 0 ? 0 : position * 1000 / sampleRate;
+    }
+
+    /**
+     * Read samples from any position of the capture
+     *
+     * @param position position of the first sample to read
+     * @param buffer   buffer to read the samples into
+     * @param offset   where in the buffer to put the first sample
+     * @param length   maximum number of samples to read
+     * @return number of samples read, less than length at the end of the capture
+     * @throws IOException if the file could not be mapped
+     */
+    public int readSamples(long position, short buffer[], int offset, int length) throws IOException {
+        if (position < 0 || position >= samples.total || length <= 0) {
+            return 0;
+        }
+        int chunk = samples.findBefore(position + 1);
+        int read = 0;
+        while (read < length && chunk < samples.size) {
+            long inChunk = position + read - samples.firstPositions[chunk];
+            int count = (int) Math.min(length - read, samples.counts[chunk] - inChunk);
+            long chunkOffset = samples.payloadOffsets[chunk] + inChunk * CaptureFormat.SAMPLE_SIZE;
+            ByteBuffer data = sampleRegion.map(chunkOffset, count * CaptureFormat.SAMPLE_SIZE).duplicate();
+            data.position(sampleRegion.index(chunkOffset));
+            data.asShortBuffer().get(buffer, offset + read, count);
+            read += count;
+            chunk++;
+        }
+        return read;
+    }
+
+    /**
+     * Read the pulses which ended at sample positions from "from" up to, but not including, "to"
+     *
+     * @param from first sample position
+     * @param to   last sample position, exclusive
+     * @return the pulses with their sample positions
+     * @throws IOException if the file could not be mapped
+     */
+    public PulseTrain readPulses(long from, long to) throws IOException {
+        PulseTrain result = new PulseTrain();
+        PulseCursor cursor = new PulseCursor(from);
+        while (cursor.hasNext() && cursor.position() < to) {
+            result.add(cursor.length(), cursor.isMark(), cursor.position());
+            cursor.next();
+        }
+        return result;
+    }
+
+    /**
+     * Replay a part of the capture. Samples are fed to the sampler and pulses to the decoder in the
+     * same order as they were recorded, each pulse before the sample at its recorded position.
+     * Pulses at position "to" are included, so replaying up to the sample count replays all pulses.
+     *
+     * @param from    position of the first sample to replay
+     * @param to      position after the last sample to replay
+     * @param sampler sampler to feed samples to, or null
+     * @param decoder decoder to feed pulses to, or null
+     * @throws IOException if the file could not be mapped
+     */
+    public void replay(long from, long to, ProtocolSampler sampler, ProtocolDecoder decoder) throws IOException {
+        to = Math.min(to, samples.total);
+        PulseCursor pulse = (decoder == null) ? null : new PulseCursor(from);
+        short block[] = new short[REPLAY_BLOCK_SIZE];
+        int values[] = new int[REPLAY_BLOCK_SIZE];
+        long position = from;
+        while (position < to) {
+            long nextPulse = Long.MAX_VALUE;
+            if (pulse != null) {
+                while (pulse.hasNext() && pulse.position() <= position) {
+                    decoder.parse(pulse.length(), pulse.isMark());
+                    pulse.next();
+                }
+                nextPulse = pulse.hasNext() ? pulse.position() : Long.MAX_VALUE;
+            }
+            int length = (int) Math.min(REPLAY_BLOCK_SIZE, Math.min(to, nextPulse) - position);
+            if (sampler != null) {
+                length = readSamples(position, block, 0, length);
+                if (length == 0) {
+                    break;
+                }
+                for (int i = 0; i < length; i++) {
+                    values[i] = block[i];
+                }
+                ProtocolSamplers.addSamples(sampler, values, 0, length);
+            }
+            position += length;
+        }
+        while (pulse != null && pulse.hasNext() && pulse.position() <= to) {
+            decoder.parse(pulse.length(), pulse.isMark());
+            pulse.next();
+        }
+    }
+
+    public void close() throws IOException {
+        sampleRegion.release();
+        pulseRegion.release();
+        channel.close();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new StreamCorruptedException("Capture file ends within a header");
+            }
+        }
+        buffer.flip();
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+
+/**
+ * Records raw samples and detected pulses to a capture file, see {@link CaptureFormat}. The writer is
+ * a tap which is added both as a sampler and as a decoder, for example to a ProtocolSamplerGroup and a
+ * ProtocolDecoderGroup, just like the RawDecoder. Each pulse is stored with the number of samples
+ * recorded when it was detected, so it can be replayed at the same place with {@link CaptureFileReader}.
+ * <p>
+ * Samples and pulses are collected in chunks which are appended to the file when they are full.
+ * The methods are synchronized, so the writer may be closed from another thread than the sampling
+ * thread. Samples and pulses which arrive after close are ignored. If writing fails, the error is
+ * logged and nothing more is written.
+ *
+ * @author Stefan
+ */
+public class CaptureFileWriter implements BlockProtocolSampler, ProtocolDecoder, Closeable {
+
+    private static Logger logger = Logger.getLogger(CaptureFileWriter.class.getName());
+
+    public static final int DEFAULT_SAMPLES_PER_CHUNK = 32768;
+    public static final int DEFAULT_PULSES_PER_CHUNK = 2048;
+
+    private final FileChannel channel;
+    private final ByteBuffer sampleChunk;
+    private final ByteBuffer pulseChunk;
+    private final int samplesPerChunk;
+    private final int pulsesPerChunk;
+    private long filePosition = CaptureFormat.HEADER_SIZE;
+    private long sampleCount = 0;
+    private long pulseCount = 0;
+    private int samplesInChunk = 0;
+    private int pulsesInChunk = 0;
+    private long firstPulsePosition = 0;
+    private int sampleRate = 0;
+    private boolean isClosed = false;
+    private volatile boolean isFailed = false;
+
+    /**
+     * Create a new capture file. An existing file with the same name is replaced.
+     *
+     * @param file   file to create
+     * @param source name of the signal source, stored in the file header
+     * @throws IOException if the file could not be created
+     */
+    public CaptureFileWriter(File file, String source) throws IOException {
+        this(file, source, DEFAULT_SAMPLES_PER_CHUNK, DEFAULT_PULSES_PER_CHUNK);
+    }
+
+    /**
+     * Create a new capture file. An existing file with the same name is replaced.
+     *
+     * @param file            file to create
+     * @param source          name of the signal source, stored in the file header
+     * @param samplesPerChunk number of samples in each sample chunk
+     * @param pulsesPerChunk  number of pulses in each pulse chunk
+     * @throws IOException if the file could not be created
+     */
+    public CaptureFileWriter(File file, String source, int samplesPerChunk, int pulsesPerChunk) throws IOException {
+        if (samplesPerChunk < 1 || samplesPerChunk * CaptureFormat.SAMPLE_SIZE > CaptureFormat.MAX_PAYLOAD ||
+                pulsesPerChunk < 1 || pulsesPerChunk * CaptureFormat.PULSE_SIZE > CaptureFormat.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Bad chunk size");
+        }
+        this.samplesPerChunk = samplesPerChunk;
+        this.pulsesPerChunk = pulsesPerChunk;
+        sampleChunk = ByteBuffer.allocate(CaptureFormat.CHUNK_HEADER_SIZE + samplesPerChunk * CaptureFormat.SAMPLE_SIZE);
+        pulseChunk = ByteBuffer.allocate(CaptureFormat.CHUNK_HEADER_SIZE + pulsesPerChunk * CaptureFormat.PULSE_SIZE);
+        sampleChunk.position(CaptureFormat.CHUNK_HEADER_SIZE);
+        pulseChunk.position(CaptureFormat.CHUNK_HEADER_SIZE);
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        randomAccessFile.setLength(0);
+        channel = randomAccessFile.getChannel();
+        writeHeader(source);
+    }
+
+    private void writeHeader(String source) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(CaptureFormat.HEADER_SIZE);
+        header.put(CaptureFormat.MAGIC);
+        header.putInt(CaptureFormat.VERSION);
+        header.putInt(CaptureFormat.HEADER_SIZE);
+        header.putInt(sampleRate);
+        header.putLong(System.currentTimeMillis());
+        byte name[] = (source == null) ? new byte[0] : source.getBytes(CaptureFormat.UTF8);
+        header.put(Arrays.copyOf(name, CaptureFormat.SOURCE_SIZE));
+        header.flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    public synchronized void addSample(int sample) {
+        if (isClosed) {
+            return;
+        }
+        sampleChunk.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample)));
+        sampleCount++;
+        if (++samplesInChunk == samplesPerChunk) {
+            writeSampleChunk();
+        }
+    }
+
+    public synchronized void addSamples(int[] samples, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            addSample(samples[i]);
+        }
+    }
+
+    /**
+     * The sample rate is stored in the file header, a capture file can only have one sample rate
+     */
+    public synchronized void setSampleRate(int frequency) {
+        sampleRate = frequency;
+        ByteBuffer rate = ByteBuffer.allocate(4);
+        rate.putInt(frequency);
+        rate.flip();
+        writeFully(rate, CaptureFormat.SAMPLE_RATE_OFFSET);
+    }
+
+    public synchronized int parse(double pulseLength, boolean isMarkPulse) {
+        if (isClosed) {
+            return 0;
+        }
+        if (pulsesInChunk == 0) {
+            firstPulsePosition = sampleCount;
+        }
+        pulseChunk.putLong(sampleCount);
+        pulseChunk.putDouble(pulseLength);
+        pulseChunk.put((byte) (isMarkPulse ? 1 : 0));
+        pulseCount++;
+        if (++pulsesInChunk == pulsesPerChunk) {
+            writePulseChunk();
+        }
+        return 0;
+    }
+
+    public ProtocolInfo getInfo() {
+        return new ProtocolInfo("Capture", "Flank Length", "-", 0, 0);
+    }
+
+    public void setTarget(ProtocolDecoderSink sink) {
+        // Nothing is decoded
+    }
+
+    /**
+     * Append the samples and pulses collected so far to the file, even if the chunks are not full
+     */
+    public synchronized void flush() {
+        if (samplesInChunk > 0) {
+            writeSampleChunk();
+        }
+        if (pulsesInChunk > 0) {
+            writePulseChunk();
+        }
+    }
+
+    /**
+     * Flush and close the file
+     *
+     * @throws IOException if the file could not be closed
+     */
+    public synchronized void close() throws IOException {
+        if (isClosed) {
+            return;
+        }
+        flush();
+        isClosed = true;
+        channel.close();
+    }
+
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    public synchronized long getPulseCount() {
+        return pulseCount;
+    }
+
+    /**
+     * @return true if writing to the file has failed
+     */
+    public boolean isFailed() {
+        return isFailed;
+    }
+
+    private void writeSampleChunk() {
+        writeChunk(sampleChunk, CaptureFormat.SAMPLE_CHUNK, samplesInChunk, sampleCount - samplesInChunk);
+        samplesInChunk = 0;
+    }
+
+    private void writePulseChunk() {
+        writeChunk(pulseChunk, CaptureFormat.PULSE_CHUNK, pulsesInChunk, firstPulsePosition);
+        pulsesInChunk = 0;
+    }
+
+    private void writeChunk(ByteBuffer chunk, int type, int count, long firstPosition) {
+        int payloadLength = chunk.position() - CaptureFormat.CHUNK_HEADER_SIZE;
+        chunk.putInt(0, type);
+        chunk.putInt(4, count);
+        chunk.putLong(8, firstPosition);
+        chunk.putInt(16, payloadLength);
+        chunk.putInt(20, 0);
+        chunk.flip();
+        int length = chunk.remaining();
+        writeFully(chunk, filePosition);
+        filePosition += length;
+        chunk.clear();
+        chunk.position(CaptureFormat.CHUNK_HEADER_SIZE);
+    }
+
+    private void writeFully(ByteBuffer data, long position) {
+        if (isFailed || isClosed) {
+            return;
+        }
+        try {
+            while (data.hasRemaining()) {
+                position += channel.write(data, position);
+            }
+        } catch (IOException e) {
+            logger.warning("Failed writing capture file: " + e.getMessage());
+            isFailed = true;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import java.nio.charset.Charset;
+
+/**
+ * Layout of capture files written by {@link CaptureFileWriter} and read by {@link CaptureFileReader}.
+ * <p>
+ * A capture file starts with a fixed size file header:
+ * <pre>
+ *  0 magic "NHCF"
+ *  4 int version
+ *  8 int header size
+ * 12 int sample rate in Hz
+ * 16 long creation time in ms since the epoch
+ * 24 32 bytes name of the source, UTF-8 padded with zeros
+ * 56 reserved
+ * </pre>
+ * It is followed by chunks, which are only ever appended. Each chunk has a fixed size chunk header:
+ * <pre>
+ *  0 int chunk type, SAMPLE_CHUNK or PULSE_CHUNK
+ *  4 int number of samples or pulses in the chunk
+ *  8 long sample position of the first sample, or of the end of the first pulse
+ * 16 int payload length in bytes
+ * 20 reserved
+ * </pre>
+ * Samples are stored as 16 bit values. Pulses are stored as the long sample position where the pulse ended,
+ * the double pulse length in uS and a mark byte. All values are big endian. Sample chunks are contiguous, so
+ * the position of every sample and pulse can be found from the chunk headers alone, which is how the time
+ * index is built when a file is opened.
+ */
+final class CaptureFormat {
+
+    static final byte MAGIC[] = {'N', 'H', 'C', 'F'};
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 64;
+    static final int SAMPLE_RATE_OFFSET = 12;
+    static final int CREATED_OFFSET = 16;
+    static final int SOURCE_OFFSET = 24;
+    static final int SOURCE_SIZE = 32;
+
+    static final int CHUNK_HEADER_SIZE = 24;
+    static final int SAMPLE_CHUNK = 1;
+    static final int PULSE_CHUNK = 2;
+
+    static final int SAMPLE_SIZE = 2;
+    static final int PULSE_SIZE = 17;
+
+    /** Largest allowed chunk payload, a chunk must fit in one mapped region of the reader */
+    static final int MAX_PAYLOAD = 1 << 24;
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private CaptureFormat() {
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import java.util.logging.Logger;
+
+/**
+ * A FIR filter which designs its own coefficients when the sample rate is set, so the same
+ * filter specification works for any sample rate the data source uses. The filter can also
+ * decimate the signal by an integer factor, which means that only every n:th filtered sample is
+ * forwarded and the output sample rate is divided by n. This way the samplers after the filter
+ * have much less data to process, and as long as the cut frequency is below half the output
+ * sample rate no information is lost.
+ * Until the sample rate is set, or if the specification is not possible at the sample rate,
+ * samples are passed through unfiltered. If the sample rate is not a multiple of the decimation
+ * factor, the largest smaller factor which divides the sample rate is used instead, so the output
+ * sample rate is always a whole number.
+ *
+ * @author Stefan
+ */
+public class DesignedFIRFilter implements BlockProtocolSampler {
+
+    public enum Type {LOW_PASS, BAND_PASS}
+
+    private static final int COEFFICIENT_SHIFT = 15;
+    private static Logger logger = Logger.getLogger(DesignedFIRFilter.class.getName());
+
+    private final ProtocolSampler m_Output;
+    private final Type m_Type;
+    private final double m_LowCutoff;
+    private final double m_HighCutoff;
+    private final int m_Taps;
+    private final int m_Decimation;
+    private int m_RateDecimation;
+    private FIRFilter m_Engine = null;
+    private int m_Phase = 0;
+    private int m_Filtered[] = new int[0];
+    private boolean m_IsActive = true;
+    private int m_SampleRate = 0;
+
+    /**
+     * Create a low pass filter
+     *
+     * @param output     sampler which receives the filtered samples
+     * @param cutoff     cut frequency in Hz
+     * @param taps       number of filter coefficients
+     * @param decimation decimation factor, 1 for no decimation
+     * @return the filter
+     */
+    public static DesignedFIRFilter lowPass(ProtocolSampler output, double cutoff, int taps, int decimation) {
+        return new DesignedFIRFilter(output, Type.LOW_PASS, 0, cutoff, taps, decimation);
+    }
+
+    /**
+     * Create a band pass filter
+     *
+     * @param output     sampler which receives the filtered samples
+     * @param lowCutoff  lower cut frequency in Hz
+     * @param highCutoff higher cut frequency in Hz
+     * @param taps       number of filter coefficients
+     * @param decimation decimation factor, 1 for no decimation
+     * @return the filter
+     */
+    public static DesignedFIRFilter bandPass(ProtocolSampler output, double lowCutoff, double highCutoff, int taps, int decimation) {
+        return new DesignedFIRFilter(output, Type.BAND_PASS, lowCutoff, highCutoff, taps, decimation);
+    }
+
+    /**
+     * @param output     sampler which receives the filtered samples
+     * @param type       type of filter
+     * @param lowCutoff  lower cut frequency in Hz, only used for band pass filters
+     * @param highCutoff higher cut frequency in Hz
+     * @param taps       number of filter coefficients
+     * @param decimation decimation factor, 1 for no decimation
+     */
+    public DesignedFIRFilter(ProtocolSampler output, Type type, double lowCutoff, double highCutoff, int taps, int decimation) {
+        if ((taps < 1) || (decimation < 1) || (highCutoff <= 0)) {
+            throw new IllegalArgumentException("Bad filter specification");
+        }
+        m_Output = output;
+        m_Type = type;
+        m_LowCutoff = lowCutoff;
+        m_HighCutoff = highCutoff;
+        m_Taps = taps;
+        m_Decimation = decimation;
+        m_RateDecimation = decimation;
+    }
+
+    public void setSampleRate(int frequency) {
+        m_SampleRate = frequency;
+        m_RateDecimation = rateDecimation(frequency);
+        try {
+            double coefficients[] = (m_Type == Type.LOW_PASS) ?
+                    FIRFilterDesign.lowPass(m_HighCutoff, frequency, m_Taps) :
+                    FIRFilterDesign.bandPass(m_LowCutoff, m_HighCutoff, frequency, m_Taps);
+            m_Engine = new FIRFilter(null, FIRFilterDesign.quantize(coefficients, COEFFICIENT_SHIFT), COEFFICIENT_SHIFT);
+            if (m_HighCutoff > frequency / 2.0 / m_RateDecimation) {
+                logger.warning("Cut frequency " + m_HighCutoff + " Hz is above half the decimated sample rate");
+            }
+        } catch (IllegalArgumentException e) {
+            logger.warning("Cannot design filter: " + e.getMessage());
+            m_Engine = null;
+        }
+        m_Phase = 0;
+        reportSampleRate();
+    }
+
+    /**
+     * @return the largest decimation factor, not above the specified one, which divides the sample rate
+     */
+    private int rateDecimation(int frequency) {
+        int decimation = m_Decimation;
+        while (frequency > 0 && frequency % decimation != 0) {
+            decimation--;
+        }
+        if (decimation != m_Decimation) {
+            logger.info("Sample rate " + frequency + " Hz is not a multiple of " + m_Decimation + ", decimating by " + decimation);
+        }
+        return decimation;
+    }
+
+    private void reportSampleRate() {
+        m_Output.setSampleRate(isFiltering() ? m_SampleRate / m_RateDecimation : m_SampleRate);
+    }
+
+    public void addSample(int sample) {
+        if (!isFiltering()) {
+            m_Output.addSample(sample);
+            return;
+        }
+        m_Engine.push(sample);
+        if (++m_Phase == m_RateDecimation) {
+            m_Phase = 0;
+            m_Output.addSample(m_Engine.compute());
+        }
+    }
+
+    public void addSamples(int[] samples, int offset, int length) {
+        if (!isFiltering()) {
+            ProtocolSamplers.addSamples(m_Output, samples, offset, length);
+            return;
+        }
+        if (m_Filtered.length < length) {
+            m_Filtered = new int[length];
+        }
+        FIRFilter engine = m_Engine;
+        int decimation = m_RateDecimation;
+        int count = 0;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            engine.push(samples[i]);
+            if (++m_Phase == decimation) {
+                m_Phase = 0;
+                m_Filtered[count++] = engine.compute();
+            }
+        }
+        ProtocolSamplers.addSamples(m_Output, m_Filtered, 0, count);
+    }
+
+    private boolean isFiltering() {
+        return m_IsActive && (m_Engine != null);
+    }
+
+    /**
+     * @return the decimation factor in use, which is smaller than the specified one if that does not
+     * divide the sample rate
+     */
+    public int getDecimation() {
+        return m_RateDecimation;
+    }
+
+    public boolean isActive() {
+        return m_IsActive;
+    }
+
+    /**
+     * Turn the filter on or off. Since the output sample rate depends on if the signal is
+     * decimated, the new sample rate is reported to the output.
+     *
+     * @param isActive true to filter the samples
+     */
+    public void setActive(boolean isActive) {
+        m_IsActive = isActive;
+        if (m_SampleRate > 0) {
+            reportSampleRate();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+/**
+ * A generic fixed point FIR filter. The filter is defined by a set of integer coefficients and
+ * a power of two gain, so the result of the multiply-accumulate is scaled down with a shift
+ * instead of a division.
+ * The history of input samples is kept in a doubled delay line where each sample is written twice,
+ * one filter length apart. That way the latest samples are always available as one contiguous
+ * window and no samples have to be shifted when a new sample arrives.
+ * Samples passing the filter are forwarded to the output sampler.
+ *
+ * @author Stefan
+ */
+public class FIRFilter implements BlockProtocolSampler {
+
+    private final int coefficients[];
+    private final int shift;
+    private final int history[];
+    private int position = 0;
+    private boolean m_IsActive = true;
+    private ProtocolSampler m_Output;
+    private int m_Filtered[] = new int[0];
+
+    /**
+     * Create a filter
+     *
+     * @param output       sampler which receives the filtered samples
+     * @param coefficients filter coefficients, the first is applied to the latest sample. The sum of
+     *                     coefficient times sample must fit in an int.
+     * @param shift        the DC gain of the filter expressed as a power of two (gain = 2^shift)
+     */
+    public FIRFilter(ProtocolSampler output, int coefficients[], int shift) {
+        if (coefficients.length == 0 || shift < 0 || shift > 31) {
+            throw new IllegalArgumentException("Bad filter specification");
+        }
+        m_Output = output;
+        this.coefficients = coefficients.clone();
+        this.shift = shift;
+        history = new int[coefficients.length * 2];
+    }
+
+    /**
+     * Feed one sample through the filter
+     *
+     * @param sample new input sample
+     * @return the resulting output sample
+     */
+    public int filter(int sample) {
+        push(sample);
+        return compute();
+    }
+
+    /**
+     * Feed a block of samples through the filter
+     *
+     * @param input        input samples
+     * @param inputOffset  index of the first input sample
+     * @param output       where to write the output samples, may be the same array as input
+     * @param outputOffset index of the first output sample
+     * @param length       number of samples
+     */
+    public void filter(int input[], int inputOffset, int output[], int outputOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            push(input[inputOffset + i]);
+            output[outputOffset + i] = compute();
+        }
+    }
+
+    /**
+     * Add a sample to the delay line without calculating any output.
+     *
+     * @param sample new input sample
+     */
+    protected void push(int sample) {
+        int taps = coefficients.length;
+        position = (position == 0 ? taps : position) - 1;
+        history[position] = sample;
+        history[position + taps] = sample;
+    }
+
+    /**
+     * @return the filter output for the samples currently in the delay line
+     */
+    protected int compute() {
+        final int c[] = coefficients;
+        final int h[] = history;
+        final int start = position;
+        int y = 0;
+        for (int n = 0; n < c.length; n++) {
+            y += c[n] * h[start + n];
+        }
+        return y >> shift;
+    }
+
+    public void addSample(int sample) {
+        m_Output.addSample(m_IsActive ? filter(sample) : sample);
+    }
+
+    public void addSamples(int[] samples, int offset, int length) {
+        if (!m_IsActive) {
+            ProtocolSamplers.addSamples(m_Output, samples, offset, length);
+            return;
+        }
+        if (m_Filtered.length < length) {
+            m_Filtered = new int[length];
+        }
+        filter(samples, offset, m_Filtered, 0, length);
+        ProtocolSamplers.addSamples(m_Output, m_Filtered, 0, length);
+    }
+
+    public void setSampleRate(int frequency) {
+        m_Output.setSampleRate(frequency);
+    }
+
+    public int getTaps() {
+        return coefficients.length;
+    }
+
+    public boolean isActive() {
+        return m_IsActive;
+    }
+
+    public void setActive(boolean isActive) {
+        m_IsActive = isActive;
+    }
+}
@@ -30,10 +30,11 @@ package nu.nethome.util.ps.impl;
  * Cut Frequency: 6.000000 KHz
  * Coefficents Quantization: 16-bit
  */
-public class FIRFilter6000 implements ProtocolSampler {
+public class FIRFilter6000 extends FIRFilter {
 	static final int Ntap = 20;
 	static final int DCgain = 65536;
-	final int FIRCoef[] = { 
+	static final int DCgainShift = 16;
+	static final int FIRCoef[] = { 
 	
         2182,
         1189,
@@ -57,44 +58,7 @@ public class FIRFilter6000 implements ProtocolSampler {
         1650
 	};
 
-
-	private int x[] = new int[Ntap]; //input samples
-	private boolean m_IsActive = true;
-	private ProtocolSampler m_Output;
-	
 	public FIRFilter6000(ProtocolSampler output) {
-		m_Output = output;
-	}
-	
-	int filter(int NewSample) {
-		int y=0;  //output sample
-		int n;
-		
-		//shift the old samples
-		for(n=Ntap-1; n>0; n--)
-		   x[n] = x[n-1];
-		
-		//Calculate the new output
-		x[0] = NewSample;
-		for(n=0; n<Ntap; n++)
-		    y += FIRCoef[n] * x[n];
-		
-		return y / DCgain;
-	}
-
-	public void addSample(int sample) {
-		m_Output.addSample(m_IsActive ? filter(sample) : sample);
-	}
-
-	public void setSampleRate(int frequency) {
-		m_Output.setSampleRate(frequency);
-	}
-
-	public boolean isActive() {
-		return m_IsActive;
-	}
-
-	public void setActive(boolean isActive) {
-		m_IsActive = isActive;
+		super(output, FIRCoef, DCgainShift);
 	}
-}
\ No newline at end of file
+}
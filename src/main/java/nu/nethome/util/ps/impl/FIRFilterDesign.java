@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+/**
+ * Designs FIR filter coefficients with the windowed sinc method. The ideal filter response is
+ * truncated to the requested number of taps and smoothed with a Hamming window.
+ *
+ * @author Stefan
+ */
+public final class FIRFilterDesign {
+
+    private FIRFilterDesign() {
+    }
+
+    /**
+     * Design a low pass filter with a DC gain of 1
+     *
+     * @param cutoff     cut frequency in Hz
+     * @param sampleRate sample rate in Hz
+     * @param taps       number of coefficients
+     * @return the filter coefficients
+     */
+    public static double[] lowPass(double cutoff, double sampleRate, int taps) {
+        checkFrequency(cutoff, sampleRate);
+        double result[] = windowedSinc(cutoff / sampleRate, taps);
+        return normalize(result, 0.0);
+    }
+
+    /**
+     * Design a band pass filter with a gain of 1 in the center of the pass band
+     *
+     * @param lowCutoff  lower cut frequency in Hz
+     * @param highCutoff higher cut frequency in Hz
+     * @param sampleRate sample rate in Hz
+     * @param taps       number of coefficients
+     * @return the filter coefficients
+     */
+    public static double[] bandPass(double lowCutoff, double highCutoff, double sampleRate, int taps) {
+        checkFrequency(lowCutoff, sampleRate);
+        checkFrequency(highCutoff, sampleRate);
+        if (lowCutoff >= highCutoff) {
+            throw new IllegalArgumentException("Low cut frequency must be below high cut frequency");
+        }
+        double high[] = windowedSinc(highCutoff / sampleRate, taps);
+        double low[] = windowedSinc(lowCutoff / sampleRate, taps);
+        for (int i = 0; i < taps; i++) {
+            high[i] -= low[i];
+        }
+        return normalize(high, (lowCutoff + highCutoff) / 2 / sampleRate);
+    }
+
+    /**
+     * Convert coefficients to fixed point values for use in {@link FIRFilter}
+     *
+     * @param coefficients coefficients to convert
+     * @param shift        the fixed point scale as a power of two
+     * @return coefficients multiplied with 2^shift and rounded
+     */
+    public static int[] quantize(double coefficients[], int shift) {
+        int result[] = new int[coefficients.length];
+        double scale = 1 << shift;
+        for (int i = 0; i < coefficients.length; i++) {
+            result[i] = (int) Math.round(coefficients[i] * scale);
+        }
+        return result;
+    }
+
+    private static void checkFrequency(double frequency, double sampleRate) {
+        if ((frequency <= 0) || (frequency >= sampleRate / 2)) {
+            throw new IllegalArgumentException("Cut frequency " + frequency + " Hz is out of range for sample rate " + sampleRate);
+        }
+    }
+
+    private static double[] windowedSinc(double relativeCutoff, int taps) {
+        if (taps < 1) {
+            throw new IllegalArgumentException("At least one tap is needed");
+        }
+        double result[] = new double[taps];
+        double middle = (taps - 1) / 2.0;
+        for (int i = 0; i < taps; i++) {
+            double n = i - middle;
+            double sinc = (n == 0) ? 2 * relativeCutoff : Math.sin(2 * Math.PI * relativeCutoff * n) / (Math.PI * n);
+            double window = (taps == 1) ? 1.0 : 0.54 - 0.46 * Math.cos(2 * Math.PI * i / (taps - 1));
+            result[i] = sinc * window;
+        }
+        return result;
+    }
+
+    /**
+     * Scale the coefficients so the gain is 1 at the specified frequency
+     */
+    private static double[] normalize(double coefficients[], double relativeFrequency) {
+        double real = 0;
+        double imaginary = 0;
+        for (int i = 0; i < coefficients.length; i++) {
+            real += coefficients[i] * Math.cos(2 * Math.PI * relativeFrequency * i);
+            imaginary += coefficients[i] * Math.sin(2 * Math.PI * relativeFrequency * i);
+        }
+        double gain = Math.sqrt(real * real + imaginary * imaginary);
+        for (int i = 0; i < coefficients.length; i++) {
+            coefficients[i] /= gain;
+        }
+        return coefficients;
+    }
+}
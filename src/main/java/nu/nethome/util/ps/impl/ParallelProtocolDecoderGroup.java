@@ -0,0 +1,306 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.PulseTrain;
+import nu.nethome.util.ps.PulseTrainDecoder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A group of ProtocolDecoders which decodes in parallel on several threads. This is intended for
+ * offline decoding of recorded pulses with a large number of decoders.
+ * The pulses are collected into chunks. When a chunk is full (or flush is called) the decoders are
+ * split into one partition per thread, and each thread feeds the whole chunk to the decoders of its
+ * partition. Each decoder is only used by one thread, so it sees all pulses in order.
+ * The messages reported by the decoders are collected and then passed on to the sink, in the calling thread,
+ * ordered by the pulse which completed them.
+ * Note that decoding is delayed until the chunk is processed, so parse always returns 0.
+ *
+ * @author Stefan
+ */
+public class ParallelProtocolDecoderGroup implements PulseTrainDecoder {
+
+    public static final int DEFAULT_CHUNK_SIZE = 4096;
+
+    private static final int MESSAGE = 0;
+    private static final int PARTIAL_MESSAGE = 1;
+    private static final int LEVEL = 2;
+
+    /**
+     * Something a decoder reported to its sink
+     */
+    private static class Event {
+        final long pulse;
+        final int decoder;
+        final int type;
+        final ProtocolMessage message;
+        final String protocol;
+        final int value;
+
+        Event(long pulse, int decoder, int type, ProtocolMessage message, String protocol, int value) {
+            this.pulse = pulse;
+            this.decoder = decoder;
+            this.type = type;
+            this.message = message;
+            this.protocol = protocol;
+            this.value = value;
+        }
+    }
+
+    private static final Comparator<Event> EVENT_ORDER = new Comparator<Event>() {
+        public int compare(Event e1, Event e2) {
+            if (e1.pulse != e2.pulse) {
+                return e1.pulse < e2.pulse ? -1 : 1;
+            }
+            return e1.decoder - e2.decoder;
+        }
+    };
+
+    /**
+     * The sink given to each decoder. It records what is reported together with the pulse being parsed.
+     */
+    private static class RecordingSink implements ProtocolDecoderSink {
+        private final Partition partition;
+        private final int decoder;
+
+        RecordingSink(Partition partition, int decoder) {
+            this.partition = partition;
+            this.decoder = decoder;
+        }
+
+        public void parsedMessage(ProtocolMessage message) {
+            partition.events.add(new Event(partition.currentPulse, decoder, MESSAGE, message, null, 0));
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+            partition.events.add(new Event(partition.currentPulse, decoder, PARTIAL_MESSAGE, null, protocol, bits));
+        }
+
+        public void reportLevel(int level) {
+            partition.events.add(new Event(partition.currentPulse, decoder, LEVEL, null, null, level));
+        }
+    }
+
+    /**
+     * The decoders handled by one thread
+     */
+    private class Partition implements Callable<List<Event>> {
+        final List<ProtocolDecoder> decoders = new ArrayList<ProtocolDecoder>();
+        List<Event> events = new ArrayList<Event>();
+        long currentPulse;
+
+        public List<Event> call() {
+            for (ProtocolDecoder decoder : decoders) {
+                for (int i = 0; i < m_Count; i++) {
+                    currentPulse = m_FirstPulse + i;
+                    decoder.parse(m_Lengths[i], m_States[i]);
+                }
+            }
+            List<Event> result = events;
+            events = new ArrayList<Event>();
+            return result;
+        }
+    }
+
+    private final List<ProtocolDecoder> m_Decoders = new ArrayList<ProtocolDecoder>();
+    private final int m_Threads;
+    private final double m_Lengths[];
+    private final boolean m_States[];
+    private int m_Count = 0;
+    private long m_FirstPulse = 0;
+    private ProtocolDecoderSink m_Sink = null;
+    private List<Partition> m_Partitions = null;
+    private ExecutorService m_Executor = null;
+
+    /**
+     * Create a group with one thread per available processor
+     */
+    public ParallelProtocolDecoderGroup() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param threads   number of decoding threads
+     * @param chunkSize number of pulses collected before they are decoded
+     */
+    public ParallelProtocolDecoderGroup(int threads, int chunkSize) {
+        if (threads < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("Need at least one thread and one pulse per chunk");
+        }
+        m_Threads = threads;
+        m_Lengths = new double[chunkSize];
+        m_States = new boolean[chunkSize];
+    }
+
+    public ProtocolInfo getInfo() {
+        // No point in returning any value here
+        return null;
+    }
+
+    public synchronized void setTarget(ProtocolDecoderSink sink) {
+        m_Sink = sink;
+    }
+
+    public synchronized int parse(double pulseLength, boolean state) {
+        m_Lengths[m_Count] = pulseLength;
+        m_States[m_Count] = state;
+        m_Count++;
+        if (m_Count == m_Lengths.length) {
+            flush();
+        }
+        return 0;
+    }
+
+    public synchronized int parse(PulseTrain pulses) {
+        for (int i = 0; i < pulses.size(); i++) {
+            parse(pulses.getLength(i), pulses.isMark(i));
+        }
+        return 0;
+    }
+
+    /**
+     * Add a decoder to the group. Any collected pulses are decoded first.
+     *
+     * @param decoder decoder to add
+     */
+    public synchronized void add(ProtocolDecoder decoder) {
+        flush();
+        m_Decoders.add(decoder);
+        m_Partitions = null;
+    }
+
+    /**
+     * Remove a decoder from the group. Any collected pulses are decoded first.
+     *
+     * @param decoder decoder to remove
+     * @return true if the decoder was in the group
+     */
+    public synchronized boolean remove(ProtocolDecoder decoder) {
+        flush();
+        m_Partitions = null;
+        return m_Decoders.remove(decoder);
+    }
+
+    public synchronized List<ProtocolDecoder> getAllDecoders() {
+        return new ArrayList<ProtocolDecoder>(m_Decoders);
+    }
+
+    /**
+     * Decode all collected pulses and report the results to the sink
+     */
+    public synchronized void flush() {
+        if (m_Count == 0) {
+            return;
+        }
+        List<Event> events = new ArrayList<Event>();
+        try {
+            for (Future<List<Event>> result : executor().invokeAll(partitions())) {
+                events.addAll(result.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Decoder failed", e.getCause());
+        } finally {
+            m_FirstPulse += m_Count;
+            m_Count = 0;
+        }
+        Collections.sort(events, EVENT_ORDER);
+        deliver(events);
+    }
+
+    /**
+     * Decode all collected pulses and stop the decoding threads. The group may still be used
+     * after this, new threads are then created.
+     */
+    public synchronized void close() {
+        flush();
+        if (m_Executor != null) {
+            m_Executor.shutdown();
+            m_Executor = null;
+        }
+    }
+
+    private void deliver(List<Event> events) {
+        if (m_Sink == null) {
+            return;
+        }
+        for (Event event : events) {
+            switch (event.type) {
+                case MESSAGE:
+                    m_Sink.parsedMessage(event.message);
+                    break;
+                case PARTIAL_MESSAGE:
+                    m_Sink.partiallyParsedMessage(event.protocol, event.value);
+                    break;
+                case LEVEL:
+                    m_Sink.reportLevel(event.value);
+                    break;
+            }
+        }
+    }
+
+    private List<Partition> partitions() {
+        if (m_Partitions == null) {
+            int count = Math.max(1, Math.min(m_Threads, m_Decoders.size()));
+            List<Partition> partitions = new ArrayList<Partition>(count);
+            for (int i = 0; i < count; i++) {
+                partitions.add(new Partition());
+            }
+            for (int i = 0; i < m_Decoders.size(); i++) {
+                Partition partition = partitions.get(i % count);
+                ProtocolDecoder decoder = m_Decoders.get(i);
+                decoder.setTarget(new RecordingSink(partition, i));
+                partition.decoders.add(decoder);
+            }
+            m_Partitions = partitions;
+        }
+        return m_Partitions;
+    }
+
+    private ExecutorService executor() {
+        if (m_Executor == null) {
+            m_Executor = Executors.newFixedThreadPool(m_Threads, new ThreadFactory() {
+                private int count = 0;
+
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ParallelDecoder" + (++count));
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return m_Executor;
+    }
+}
@@ -22,7 +22,11 @@ package nu.nethome.util.ps.impl;
 import nu.nethome.util.ps.ProtocolDecoder;
 import nu.nethome.util.ps.ProtocolDecoderSink;
 import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.PulseTrain;
+import nu.nethome.util.ps.PulseTrainDecoder;
+import nu.nethome.util.ps.StartPulse;
 
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -30,21 +34,106 @@ import java.util.List;
  * A ProtocolDecoder which just is a group of many ProtocolDecoders. Similar to the Composite-pattern.
  * All operations are just delegated down to all members of the group. This is used when you want
  * more than one ProtocolDecoder receive data from a data source.
+ * The active decoders are kept in an array which is replaced (copy on write) whenever the group
+ * is changed, so parsing a pulse is a plain loop without locking or allocation, and the group may be
+ * modified from another thread while pulses are being parsed.
+ * Decoders which declare their start pulses in their {@link ProtocolInfo} are only called while
+ * they are busy (their last parse call returned a non zero state) or when the pulse matches one of
+ * their start pulses. That way the cost of each pulse depends on the number of busy decoders
+ * rather than on the number of loaded decoders. Decoders without declared start pulses are always called.
  * 
  * @author Stefan
  */
 
 public class ProtocolDecoderGroup implements
-		ProtocolDecoder {
+		PulseTrainDecoder {
 
-    private final LinkedList<ProtocolDecoder> activeDecoders = new LinkedList<ProtocolDecoder>();
-    private final LinkedList<ProtocolDecoder> passiveDecoders = new LinkedList<ProtocolDecoder>();
+    /**
+     * The immutable set of active decoders together with the start pulse indexes and the busy
+     * bookkeeping. The bookkeeping is only touched by the thread calling parse. When the group
+     * is changed, a new Dispatch is created where all filtered decoders start out as busy, since
+     * their state is unknown until they have parsed a pulse.
+     */
+    private static final class Dispatch {
+        final ProtocolDecoder decoders[];
+        final int unfiltered[];
+        final StartPulseIndex markIndex = new StartPulseIndex();
+        final StartPulseIndex spaceIndex = new StartPulseIndex();
+        final int busy[];
+        final long calledAt[];
+        int busyCount = 0;
+        long pulseNumber = 0;
 
-    public boolean isActive(ProtocolDecoder decoder) {
+        Dispatch(ProtocolDecoder decoders[]) {
+            this.decoders = decoders;
+            busy = new int[decoders.length];
+            calledAt = new long[decoders.length];
+            int unfilteredCount = 0;
+            int unfilteredDecoders[] = new int[decoders.length];
+            for (int i = 0; i < decoders.length; i++) {
+                ProtocolInfo info = decoders[i].getInfo();
+                if (info == null || info.getStartPulses().isEmpty()) {
+                    unfilteredDecoders[unfilteredCount++] = i;
+                } else {
+                    for (StartPulse pulse : info.getStartPulses()) {
+                        (pulse.isMark() ? markIndex : spaceIndex).add(pulse.getLowerLimit(), pulse.getUpperLimit(), i);
+                    }
+                    addBusy(i);
+                }
+            }
+            unfiltered = new int[unfilteredCount];
+            System.arraycopy(unfilteredDecoders, 0, unfiltered, 0, unfilteredCount);
+            markIndex.build();
+            spaceIndex.build();
+        }
+
+        int parse(double pulseLength, boolean state) {
+            int result = 0;
+            pulseNumber++;
+            for (int i : unfiltered) {
+                result = decoders[i].parse(pulseLength, state);
+            }
+            int b = 0;
+            while (b < busyCount) {
+                int i = busy[b];
+                calledAt[i] = pulseNumber;
+                result = decoders[i].parse(pulseLength, state);
+                if (result == 0) {
+                    removeBusy(b);
+                } else {
+                    b++;
+                }
+            }
+            for (int i : (state ? markIndex : spaceIndex).lookup(pulseLength)) {
+                if (calledAt[i] != pulseNumber) {
+                    calledAt[i] = pulseNumber;
+                    result = decoders[i].parse(pulseLength, state);
+                    if (result != 0) {
+                        addBusy(i);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private void addBusy(int decoder) {
+            busy[busyCount++] = decoder;
+        }
+
+        private void removeBusy(int position) {
+            busy[position] = busy[--busyCount];
+        }
+    }
+
+    private final LinkedHashSet<ProtocolDecoder> activeDecoders = new LinkedHashSet<ProtocolDecoder>();
+    private final LinkedHashSet<ProtocolDecoder> passiveDecoders = new LinkedHashSet<ProtocolDecoder>();
+    private volatile Dispatch activeSnapshot = new Dispatch(new ProtocolDecoder[0]);
+
+    public synchronized boolean isActive(ProtocolDecoder decoder) {
 		return activeDecoders.contains(decoder);
 	}
 
-    public void setTarget(ProtocolDecoderSink sink) {
+    public synchronized void setTarget(ProtocolDecoderSink sink) {
         for (ProtocolDecoder decoder : activeDecoders) {
             decoder.setTarget(sink);
         }
@@ -59,37 +148,50 @@ public class ProtocolDecoderGroup implements
 	}
 
 	public int parse(double pulseLength, boolean state) {
-		// Let all decoders in the group parse this
+		// Let all decoders in the group that may be interested parse this
+        return activeSnapshot.parse(pulseLength, state);
+	}
+
+    public int parse(PulseTrain pulses) {
+        // The same set of decoders parses the whole train
+        Dispatch dispatch = activeSnapshot;
         int result = 0;
-		for (ProtocolDecoder decoder : activeDecoders) {
-			result = decoder.parse(pulseLength, state);
-		}
+        for (int i = 0; i < pulses.size(); i++) {
+            result = dispatch.parse(pulses.getLength(i), pulses.isMark(i));
+        }
         return result;
-	}
+    }
 
-	public void setActive(ProtocolDecoder decoder, boolean active) {
+	public synchronized void setActive(ProtocolDecoder decoder, boolean active) {
         if (active) {
             passiveDecoders.remove(decoder);
-            if (!activeDecoders.contains(decoder)) {
-                activeDecoders.add(decoder);
-            }
+            activeDecoders.add(decoder);
         } else {
             activeDecoders.remove(decoder);
-            if (!passiveDecoders.contains(decoder)) {
-                passiveDecoders.add(decoder);
-            }
+            passiveDecoders.add(decoder);
         }
+        updateSnapshot();
 	}
 
-    public boolean remove(ProtocolDecoder o) {
-        return activeDecoders.remove(o) || passiveDecoders.remove(o);
+    public synchronized boolean remove(ProtocolDecoder o) {
+        boolean result = activeDecoders.remove(o) || passiveDecoders.remove(o);
+        updateSnapshot();
+        return result;
     }
 
-    public boolean add(ProtocolDecoder protocolDecoder) {
-        return activeDecoders.add(protocolDecoder);
+    /**
+     * Add a decoder to the group as an active decoder
+     * @param protocolDecoder decoder to add
+     * @return false if the decoder already was active in the group
+     */
+    public synchronized boolean add(ProtocolDecoder protocolDecoder) {
+        passiveDecoders.remove(protocolDecoder);
+        boolean result = activeDecoders.add(protocolDecoder);
+        updateSnapshot();
+        return result;
     }
 
-    public List<ProtocolDecoder> getAllDecoders() {
+    public synchronized List<ProtocolDecoder> getAllDecoders() {
         List<ProtocolDecoder> result = new LinkedList<ProtocolDecoder>();
         for (ProtocolDecoder d : activeDecoders) {
             result.add(d);
@@ -99,4 +201,8 @@ public class ProtocolDecoderGroup implements
         }
         return result;
     }
+
+    private void updateSnapshot() {
+        activeSnapshot = new Dispatch(activeDecoders.toArray(new ProtocolDecoder[activeDecoders.size()]));
+    }
 }
@@ -19,17 +19,23 @@
 
 package nu.nethome.util.ps.impl;
 
+import nu.nethome.util.ps.ProtocolDecoder;
+
 import java.util.LinkedList;
 
 /**
  * A ProtocolSampler which just is a group of many ProtocolSamplers. Similar to the Composite-pattern.
  * All operations are just delegated down to all members of the group. This is used when you want
  * more than one ProtocolSamplers receive data from a data source.
+ * When a block of samples is added, each member gets the whole block in turn. The exception is if
+ * a member also is a ProtocolDecoder (like the RawDecoder). Such a member depends on the pulses
+ * the other members detect for the very same sample, so then the block is fed sample by sample
+ * to keep all members in step.
  * 
  * @author Stefan
  */
 public class ProtocolSamplerGroup extends LinkedList<ProtocolSampler> implements
-		ProtocolSampler {
+		BlockProtocolSampler {
 
 	public void addSample(int sample) {
 		for (ProtocolSampler sampler : this) {
@@ -37,6 +43,35 @@ public class ProtocolSamplerGroup extends LinkedList<ProtocolSampler> implements
 		}
 	}
 
+	public void addSamples(int[] samples, int offset, int length) {
+		ProtocolSampler members[] = toArray(new ProtocolSampler[size()]);
+		if (needsLockStep(members)) {
+			int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				int sample = samples[i];
+				for (ProtocolSampler member : members) {
+					member.addSample(sample);
+				}
+			}
+		} else {
+			for (ProtocolSampler member : members) {
+				ProtocolSamplers.addSamples(member, samples, offset, length);
+			}
+		}
+	}
+
+	private static boolean needsLockStep(ProtocolSampler members[]) {
+		if (members.length < 2) {
+			return false;
+		}
+		for (ProtocolSampler member : members) {
+			if (member instanceof ProtocolDecoder) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	public void setSampleRate(int frequency) {
 		for (ProtocolSampler sampler : this) {
 			sampler.setSampleRate(frequency);
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+/**
+ * Helper methods for feeding samples to ProtocolSamplers.
+ *
+ * @author Stefan
+ */
+public final class ProtocolSamplers {
+
+    private ProtocolSamplers() {
+    }
+
+    /**
+     * Feed a block of samples to a sampler. If the sampler is a {@link BlockProtocolSampler} the
+     * whole block is handed over in one call, otherwise the samples are added one at a time.
+     *
+     * @param sampler sampler to feed
+     * @param samples buffer holding the samples
+     * @param offset  index of the first sample in the buffer
+     * @param length  number of samples to add
+     */
+    public static void addSamples(ProtocolSampler sampler, int[] samples, int offset, int length) {
+        if (sampler instanceof BlockProtocolSampler) {
+            ((BlockProtocolSampler) sampler).addSamples(samples, offset, length);
+        } else {
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                sampler.addSample(samples[i]);
+            }
+        }
+    }
+}
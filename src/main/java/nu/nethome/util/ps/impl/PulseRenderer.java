@@ -0,0 +1,290 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import nu.nethome.util.ps.PulseSequence;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Renders a pulse sequence as 8 bit stereo audio samples, a part at a time. The same sample value is
+ * written to both channels. The rendering starts with a ramp from the idle "0"-value of the line
+ * down to the space level, since the full swing of the signal is used.
+ * A renderer only holds the position in the sequence, so it takes constant memory regardless of the
+ * length of the sequence. Each renderer has its own state, so several renderers can render for
+ * different output devices at the same time.
+ * <p>
+ * By default each pulse length is truncated to whole samples independently, so the timing error grows
+ * along the sequence. With carryRemainder the fraction is carried over to the next pulse, which keeps
+ * every flank within half a sample of its ideal time. With oversampling the flanks are placed with
+ * 1/oversampling sample resolution, and the sample a flank falls in gets a value between mark and space
+ * level. The timing error of the flanks is measured while rendering.
+ *
+ * @author Stefan
+ */
+public class PulseRenderer {
+
+    public static final int CHANNELS = 2;
+    private static final int TILE_SIZE = 512;
+
+    private final float sampleRate;
+    private final int swing;
+    private final int sign;
+    private final byte markValue;
+    private final byte spaceValue;
+    private final byte[] markTile;
+    private final byte[] spaceTile;
+    private boolean carryRemainder = false;
+    private int oversampling = 1;
+
+    private PulseSequence sequence;
+    private int rampLevel;
+    private int pulseIndex;
+    private boolean mark;
+    private byte edgeValue;
+    // Time is counted in units of 1/oversampling sample
+    private int unitsLeft;
+    private long renderedUnits;
+    private double idealUnits;
+    private double unitsPerMicrosecond;
+
+    // Timing statistics
+    private long idealTime;
+    private int edgeCount;
+    private double maxTimingError;
+    private double totalTimingError;
+
+    /**
+     * @param sampleRate samples per second
+     * @param swing      sample value of mark pulses, space pulses get the negated value
+     */
+    public PulseRenderer(float sampleRate, int swing) {
+        this.sampleRate = sampleRate;
+        this.swing = swing;
+        sign = swing < 0 ? -1 : 1;
+        markValue = (byte) swing;
+        spaceValue = (byte) -swing;
+        markTile = new byte[TILE_SIZE];
+        spaceTile = new byte[TILE_SIZE];
+        Arrays.fill(markTile, markValue);
+        Arrays.fill(spaceTile, spaceValue);
+    }
+
+    /**
+     * Start rendering a new sequence
+     *
+     * @param sequence pulses to render, starting with a mark pulse
+     */
+    public void start(PulseSequence sequence) {
+        this.sequence = sequence;
+        rampLevel = 0;
+        pulseIndex = 0;
+        mark = false;
+        unitsLeft = 0;
+        renderedUnits = 0;
+        idealUnits = 0;
+        unitsPerMicrosecond = sampleRate * oversampling / 1000000.0;
+        idealTime = 0;
+        edgeCount = 0;
+        maxTimingError = 0;
+        totalTimingError = 0;
+    }
+
+    /**
+     * @return true when the whole sequence has been rendered
+     */
+    public boolean isFinished() {
+        return sequence == null || (rampLevel >= Math.abs(swing) && unitsLeft == 0 && pulseIndex >= sequence.length());
+    }
+
+    /**
+     * Render the next part of the sequence
+     *
+     * @param buffer destination of the samples
+     * @param offset where in the buffer to start
+     * @param length maximum number of bytes to render, only whole stereo frames are rendered
+     * @return number of bytes rendered, 0 when the sequence is finished
+     */
+    public int render(byte[] buffer, int offset, int length) {
+        int position = offset;
+        int end = offset + length - (length % CHANNELS);
+        if (sequence == null) {
+            return 0;
+        }
+        // The ramp down to the space level
+        while (rampLevel < Math.abs(swing) && position < end) {
+            buffer[position++] = (byte) (-rampLevel * sign);
+            buffer[position++] = (byte) (-rampLevel * sign);
+            rampLevel += 2;
+        }
+        while (position < end) {
+            int run = nextRun((end - position) / CHANNELS);
+            if (run < 0) {
+                break;
+            } else if (run == 0) {
+                buffer[position++] = edgeValue;
+                buffer[position++] = edgeValue;
+            } else {
+                // Both channels get the same value, so a pulse is one run of equal bytes
+                Arrays.fill(buffer, position, position + run * CHANNELS, mark ? markValue : spaceValue);
+                position += run * CHANNELS;
+            }
+        }
+        return position - offset;
+    }
+
+    /**
+     * Render the next part of the sequence into a buffer, as much as fits in the remaining
+     * space of the buffer. The position of the buffer is advanced past the rendered data.
+     * Direct buffers are filled by copying from prebuilt mark and space blocks.
+     *
+     * @param buffer destination of the samples
+     * @return number of bytes rendered, 0 when the sequence is finished
+     */
+    public int render(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            int length = render(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            buffer.position(buffer.position() + length);
+            return length;
+        }
+        int start = buffer.position();
+        if (sequence == null) {
+            return 0;
+        }
+        while (rampLevel < Math.abs(swing) && buffer.remaining() >= CHANNELS) {
+            buffer.put((byte) (-rampLevel * sign));
+            buffer.put((byte) (-rampLevel * sign));
+            rampLevel += 2;
+        }
+        while (buffer.remaining() >= CHANNELS) {
+            int run = nextRun(Math.min(buffer.remaining(), TILE_SIZE) / CHANNELS);
+            if (run < 0) {
+                break;
+            } else if (run == 0) {
+                buffer.put(edgeValue);
+                buffer.put(edgeValue);
+            } else {
+                buffer.put(mark ? markTile : spaceTile, 0, run * CHANNELS);
+            }
+        }
+        return buffer.position() - start;
+    }
+
+    /**
+     * Find out what to render next.
+     *
+     * @param maxSamples maximum number of samples to consume
+     * @return number of whole samples of the current level, 0 if the next sample contains
+     * a flank and has the value edgeValue, or -1 if the sequence is finished
+     */
+    private int nextRun(int maxSamples) {
+        while (unitsLeft == 0) {
+            if (!nextPulse()) {
+                return -1;
+            }
+        }
+        if (unitsLeft >= oversampling) {
+            int run = Math.min(unitsLeft / oversampling, maxSamples);
+            unitsLeft -= run * oversampling;
+            return run;
+        }
+        // The flank is within this sample, mix the levels weighted by how long they last in the sample
+        int needed = oversampling;
+        int level = 0;
+        while (needed > 0 && (unitsLeft > 0 || nextPulse())) {
+            int part = Math.min(needed, unitsLeft);
+            level += part * (mark ? swing : -swing);
+            needed -= part;
+            unitsLeft -= part;
+        }
+        // If the sequence ended within the sample, the last level fills it
+        level += needed * (mark ? swing : -swing);
+        edgeValue = (byte) Math.round(level / (float) oversampling);
+        return 0;
+    }
+
+    private boolean nextPulse() {
+        if (pulseIndex >= sequence.length()) {
+            return false;
+        }
+        int length_us = sequence.get(pulseIndex);
+        mark = (pulseIndex & 1) == 0;
+        pulseIndex++;
+        if (carryRemainder || oversampling > 1) {
+            idealUnits += length_us * unitsPerMicrosecond;
+            long end = Math.round(idealUnits);
+            unitsLeft = (int) (end - renderedUnits);
+        } else {
+            unitsLeft = (int) (sampleRate * length_us / 1000000.0);
+        }
+        renderedUnits += unitsLeft;
+        idealTime += length_us;
+        double error = Math.abs(renderedUnits / unitsPerMicrosecond - idealTime);
+        edgeCount++;
+        totalTimingError += error;
+        if (error > maxTimingError) {
+            maxTimingError = error;
+        }
+        return true;
+    }
+
+    /**
+     * Carry the fraction of a sample that is lost when a pulse is converted to whole samples over
+     * to the next pulse, so the error does not accumulate. Takes effect at the next start.
+     *
+     * @param carryRemainder true to carry the remainder, false to truncate each pulse (default)
+     */
+    public void setCarryRemainder(boolean carryRemainder) {
+        this.carryRemainder = carryRemainder;
+    }
+
+    public boolean isCarryRemainder() {
+        return carryRemainder;
+    }
+
+    /**
+     * Set the time resolution of the flanks in parts of a sample. Values above 1 interpolate the
+     * sample a flank falls in and imply that the remainder is carried. Takes effect at the next start.
+     *
+     * @param oversampling parts per sample, 1 (or 0) for whole samples (default)
+     */
+    public void setOversampling(int oversampling) {
+        this.oversampling = Math.max(1, oversampling);
+    }
+
+    public int getOversampling() {
+        return oversampling;
+    }
+
+    /**
+     * @return largest difference between rendered and ideal flank time so far in the sequence in micro seconds
+     */
+    public double getMaxTimingError() {
+        return maxTimingError;
+    }
+
+    /**
+     * @return average difference between rendered and ideal flank time so far in the sequence in micro seconds
+     */
+    public double getAverageTimingError() {
+        return edgeCount == 0 ? 0 : totalTimingError / edgeCount;
+    }
+}
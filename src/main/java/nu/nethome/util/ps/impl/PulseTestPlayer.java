@@ -22,7 +22,10 @@ package nu.nethome.util.ps.impl;
 import nu.nethome.util.ps.FieldValue;
 import nu.nethome.util.ps.ProtocolDecoder;
 import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolDecoders;
 import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.PulseSequence;
+import nu.nethome.util.ps.PulseTrain;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -44,20 +47,31 @@ public class PulseTestPlayer implements ProtocolDecoderSink {
 	protected int m_PartialllyParsed = 0;
 	protected int m_ReportedLevel = 0;
 	protected int m_PulseWidthModification = 0;
+	protected PulseTrain m_Pulses = new PulseTrain();
 
 	public boolean playMessage(int message[]) {
+		return playMessage(new PulseSequence(new int[0], message, 1));
+	}
+
+	public boolean playMessage(PulseSequence sequence) {
 		boolean state = true;
-		m_Decoder.parse(10000.0, false);
-		for (int pulse : message) {
+		boolean result = true;
+		m_Pulses.clear();
+		m_Pulses.add(10000.0, false);
+		for (int i = 0; i < sequence.length(); i++) {
+			int pulse = sequence.get(i);
 			if ((pulse < 0) || (pulse > 100000)) {
-				return false;
+				result = false;
+				break;
 			}
 			float adjustedPulse = state ? pulse + m_PulseWidthModification : 
 				pulse - m_PulseWidthModification;
-			m_Decoder.parse(adjustedPulse, state);
+			m_Pulses.add(adjustedPulse, state);
 			state = !state;
 		}
-		return true;
+		// Play the pulses up to any bad pulse as one train
+		ProtocolDecoders.parse(m_Decoder, m_Pulses);
+		return result;
 	}
 	
 	public void setDecoder(ProtocolDecoder decoder) {
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+/**
+ * Interface for ports which can transmit pulse trains, for example via an RF transmitter.
+ *
+ * @author Stefan
+ */
+public interface PulseTransmitter {
+
+    /**
+     * Transmit the list of pulses (in microseconds). The method returns when the transmission is
+     * done or handed over to the device.
+     *
+     * @param message      List of pulse lengths in microseconds, beginning with a mark pulse
+     * @param repeat       Number of times to repeat message
+     * @param repeatOffset Number pulses into the message the repeat sequence should begin
+     * @return True if successful
+     */
+    boolean playMessage(int message[], int repeat, int repeatOffset);
+}
@@ -19,24 +19,109 @@
 
 package nu.nethome.util.ps.impl;
 
+import nu.nethome.util.ps.PulseSequence;
+
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class RFBitBangerPort {
+/**
+ * Transmits pulses via the rf-bitbanger device, which takes the pulses in LIRC mode2 format.
+ * The encoded form of recently sent messages is cached, and repeats are written by writing the same
+ * encoded buffer several times. Optionally the device can be kept open between messages, see setKeepOpen.
+ */
+public class RFBitBangerPort implements PulseTransmitter {
     public static final String DEFAULT_DEVICE_NAME = "/dev/rfbb";
+    public static final int DEFAULT_CACHE_SIZE = 16;
 
     private static final long LIRC_MODE2_SPACE = 0x00000000L;
     private static final long LIRC_MODE2_PULSE = 0x01000000L;
     private static final long LIRC_VALUE_MASK = 0x00FFFFFF;
+
+    /**
+     * A message encoded in LIRC mode2 format. If the repeated part has an odd number of pulses, every
+     * second repeat starts with a space, so then there are two versions of the repeated part.
+     */
+    private static class EncodedMessage {
+        final ByteBuffer header;
+        final ByteBuffer firstRepeat;
+        final ByteBuffer secondRepeat;
+
+        EncodedMessage(ByteBuffer header, ByteBuffer firstRepeat, ByteBuffer secondRepeat) {
+            this.header = header;
+            this.firstRepeat = firstRepeat;
+            this.secondRepeat = secondRepeat;
+        }
+    }
+
+    private static class MessageKey {
+        final int message[];
+        final int repeatOffset;
+
+        MessageKey(int message[], int repeatOffset) {
+            this.message = message;
+            this.repeatOffset = repeatOffset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof MessageKey)) return false;
+            MessageKey other = (MessageKey) o;
+            return repeatOffset == other.repeatOffset && Arrays.equals(message, other.message);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(message) + repeatOffset;
+        }
+    }
+
+    /**
+     * A map in access order which removes the least recently used message when it grows above maxSize
+     */
+    private static class MessageCache extends LinkedHashMap<MessageKey, EncodedMessage> {
+        static final long serialVersionUID = 0;
+
+        int maxSize;
+
+        MessageCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<MessageKey, EncodedMessage> eldest) {
+            return size() > maxSize;
+        }
+    }
+
     private Logger logger = Logger.getLogger(RFBitBangerPort.class.getName());
     private String deviceName = DEFAULT_DEVICE_NAME;
+    private boolean keepOpen = false;
+    private FileChannel device = null;
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+    private final MessageCache cache = new MessageCache(DEFAULT_CACHE_SIZE);
 
     public RFBitBangerPort(String deviceName) {
         this.deviceName = deviceName;
     }
 
+    /**
+     * Transmit a pulse sequence, the repeats are not copied
+     * @param sequence pulses to transmit
+     * @return True if successful
+     */
+    public boolean playMessage(PulseSequence sequence) {
+        return playMessage(sequence.getMessage(), sequence.getRepeatCount(), sequence.getRepeatOffset());
+    }
+
     /**
      * Transmit the list of pulses (in microseconds)
      *
@@ -45,49 +130,181 @@ public class RFBitBangerPort {
      * @param repeatOffset Number pulses into the message the repeat sequence should begin
      * @return True if successful
      */
-    public boolean playMessage(int message[], int repeat, int repeatOffset) {
-        byte[] messageBytes = new byte[(repeatOffset + (message.length - repeatOffset) * repeat) * 4];
-        int writePosition = 0;
-        boolean state = true;
+    public synchronized boolean playMessage(int message[], int repeat, int repeatOffset) {
+        ByteBuffer buffers[] = messageBuffers(encode(message, repeatOffset), repeat);
+        boolean wasOpen = device != null;
+        try {
+            if (device == null) {
+                device = openDevice();
+            }
+            write(buffers);
+            return true;
+        } catch (IOException e) {
+            if (device == null) {
+                logger.log(Level.WARNING, "Could not open rf-bitbanger device", e);
+                return false;
+            }
+            // Only retry if nothing was written, so a partial message is never followed by the whole message
+            if (wasOpen && isUnwritten(buffers)) {
+                return retry(buffers);
+            }
+            logger.log(Level.WARNING, "Could not write to rf-bitbanger device", e);
+            return false;
+        } finally {
+            if (!keepOpen) {
+                close();
+            }
+        }
+    }
+
+    /**
+     * A device which was kept open may have been removed and added again, so make one attempt with a newly
+     * opened device
+     */
+    private boolean retry(ByteBuffer buffers[]) {
+        close();
+        try {
+            device = openDevice();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not reopen rf-bitbanger device", e);
+            return false;
+        }
+        try {
+            write(buffers);
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not write to reopened rf-bitbanger device", e);
+            close();
+            return false;
+        }
+    }
+
+    FileChannel openDevice() throws IOException {
+        return new FileOutputStream(deviceName).getChannel();
+    }
+
+    private void write(ByteBuffer buffers[]) throws IOException {
+        long left = 0;
+        for (ByteBuffer buffer : buffers) {
+            left += buffer.remaining();
+        }
+        while (left > 0) {
+            left -= device.write(buffers);
+        }
+    }
+
+    private static boolean isUnwritten(ByteBuffer buffers[]) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.position() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Close the device if it is kept open
+     */
+    public synchronized void close() {
+        if (device != null) {
+            try {
+                device.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            device = null;
+        }
+    }
+
+    private static ByteBuffer[] messageBuffers(EncodedMessage encoded, int repeat) {
+        ByteBuffer result[] = new ByteBuffer[repeat + 1];
+        result[0] = encoded.header.duplicate();
+        for (int i = 0; i < repeat; i++) {
+            result[i + 1] = ((i & 1) == 0 ? encoded.firstRepeat : encoded.secondRepeat).duplicate();
+        }
+        return result;
+    }
+
+    private EncodedMessage encode(int message[], int repeatOffset) {
+        MessageKey key = new MessageKey(message, repeatOffset);
+        EncodedMessage encoded = cache.get(key);
+        if (encoded == null) {
+            encoded = encodeMessage(message, repeatOffset);
+            if (cacheSize > 0) {
+                cache.put(new MessageKey(message.clone(), repeatOffset), encoded);
+            }
+        }
+        return encoded;
+    }
 
+    private static EncodedMessage encodeMessage(int message[], int repeatOffset) {
+        int repeatLength = message.length - repeatOffset;
+        boolean oddRepeat = (repeatLength & 1) != 0;
+        ByteBuffer buffer = ByteBuffer.allocateDirect((repeatOffset + repeatLength * (oddRepeat ? 2 : 1)) * 4);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        boolean state = true;
         for (int i = 0; i < repeatOffset; i++) {
-            writePosition = writePulse(state, message[i], messageBytes, writePosition);
+            writePulse(state, message[i], buffer);
             state = !state;
         }
-        for (int repeatCounter = 0; repeatCounter < repeat; repeatCounter++) {
+        int passes = oddRepeat ? 2 : 1;
+        for (int pass = 0; pass < passes; pass++) {
             for (int i = repeatOffset; i < message.length; i++) {
-                writePosition = writePulse(state, message[i], messageBytes, writePosition);
+                writePulse(state, message[i], buffer);
                 state = !state;
             }
         }
-        FileOutputStream device = null;
-        boolean result = false;
-        try {
-            device = new FileOutputStream(deviceName);
-            device.write(messageBytes);
-            result = true;
-        } catch (IOException e) {
-            String errorMessage = device == null ? "Could not open rf-bitbanger device" : "Could not write to rf-bitbanger device";
-            logger.log(Level.WARNING, errorMessage, e);
-        } finally {
-            if (device != null) {
-                try {
-                    device.close();
-                } catch (IOException e) {
-                    // ignore
-                }
-            }
-        }
-        return result;
+        ByteBuffer header = slice(buffer, 0, repeatOffset * 4);
+        ByteBuffer firstRepeat = slice(buffer, repeatOffset * 4, repeatLength * 4);
+        ByteBuffer secondRepeat = oddRepeat ? slice(buffer, (repeatOffset + repeatLength) * 4, repeatLength * 4) : firstRepeat;
+        return new EncodedMessage(header, firstRepeat, secondRepeat);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int length) {
+        ByteBuffer result = buffer.duplicate();
+        result.limit(start + length);
+        result.position(start);
+        return result.slice();
     }
 
-    private int writePulse(boolean state, int pulse, byte[] messageBytes, int writePosition) {
+    private static void writePulse(boolean state, int pulse, ByteBuffer buffer) {
         long value = pulse & LIRC_VALUE_MASK;
-        value |= (state ? LIRC_MODE2_PULSE : 0L);
-        messageBytes[writePosition] = (byte) (value & 0xFF);
-        messageBytes[writePosition + 1] = (byte) ((value >> 8) & 0xFF);
-        messageBytes[writePosition + 2] = (byte) ((value >> 16) & 0xFF);
-        messageBytes[writePosition + 3] = (byte) ((value >> 24) & 0xFF);
-        return writePosition + 4;
+        value |= (state ? LIRC_MODE2_PULSE : LIRC_MODE2_SPACE);
+        buffer.putInt((int) value);
+    }
+
+    /**
+     * See setKeepOpen
+     * @return true if the device is kept open between messages
+     */
+    public boolean isKeepOpen() {
+        return keepOpen;
+    }
+
+    /**
+     * If keep open is set, the device is opened at the first message and then kept open. If a write fails
+     * before any part of the message was written, the device is reopened and the message is written again once.
+     * Otherwise the device is opened and closed for each message.
+     * @param keepOpen true to keep the device open between messages
+     */
+    public synchronized void setKeepOpen(boolean keepOpen) {
+        this.keepOpen = keepOpen;
+        if (!keepOpen) {
+            close();
+        }
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * @param cacheSize Number of recently sent messages to keep encoded, 0 to not cache any messages
+     */
+    public synchronized void setCacheSize(int cacheSize) {
+        if (cacheSize < 0) return;
+        this.cacheSize = cacheSize;
+        cache.maxSize = cacheSize;
+        cache.clear();
     }
 }
@@ -22,10 +22,9 @@ package nu.nethome.util.ps.impl;
 import nu.nethome.util.ps.ProtocolDecoder;
 import nu.nethome.util.ps.ProtocolDecoderSink;
 import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.PulseTrain;
 import nu.nethome.util.ps.RawProtocolMessage;
-
-import java.util.ArrayList;
-import java.util.LinkedList;
+import nu.nethome.util.ps.SampleWindow;
 
 
 /**
@@ -34,10 +33,17 @@ import java.util.LinkedList;
  * When flanks are detected (the parse-method is called) the RawDecoder starts saving
  * all raw samples until the protocol message stops. The raw samples are then
  * reported as a special ProtocolMessage which contains all raw sample data.
+ * The samples and pulses are collected in primitive buffers which are reused for every
+ * message, and each reported message gets its own copy of the collected data.
+ * Samples are stored as 16 bit values.
+ * <p>
+ * With a pre-trigger time set, the RawDecoder also keeps the latest samples in a circular history
+ * buffer, and a message starts with the samples from that time before the first flank was detected,
+ * so the leading edge of the signal is included.
  *
  * @author Stefan
  */
-public class RawDecoder implements ProtocolDecoder, ProtocolSampler {
+public class RawDecoder implements ProtocolDecoder, BlockProtocolSampler {
 
     private static final int IDLE = 0;
     private static final int READING_MESSAGE = 1;
@@ -51,9 +57,9 @@ public class RawDecoder implements ProtocolDecoder, ProtocolSampler {
     private static final int MIN_PULSES_PER_SAMPLE = 4;
 
     private int state = IDLE;
-    private LinkedList<Integer> pulsePositions;
+    private final PulseTrain pulses = new PulseTrain();
     private boolean isSampling = false;
-    private ArrayList<Integer> samples;
+    private short samples[] = new short[0];
     private int sampleCount = 0;
     private int sampleCountAtLastPulse = 0;
     private double lastPulseLength = 0;
@@ -63,8 +69,11 @@ public class RawDecoder implements ProtocolDecoder, ProtocolSampler {
     private boolean isFreeSampling = false;
     private int signalLevel = 0;
     private int signalLevelReportCount = 10;
-    private LinkedList<Double> pulseLengths;
     private int maxSampleLength;
+    private int preTriggerTime = 0;
+    private short history[] = new short[0];
+    private int historyPosition = 0;
+    private int historyCount = 0;
 
     public void setTarget(ProtocolDecoderSink sink) {
         decoderSink = sink;
@@ -81,6 +90,28 @@ public class RawDecoder implements ProtocolDecoder, ProtocolSampler {
     public void setSampleRate(int frequency) {
         sampleFrequency = frequency;
         maxMessageLength = (int) (sampleFrequency * MAX_MESSAGE_LENGTH_MS * 0.001);
+        createHistory();
+    }
+
+    /**
+     * Set how much of the signal before the first detected flank is included in a message.
+     * This does not apply to free sampling.
+     *
+     * @param milliseconds pre-trigger time, 0 (default) to start at the first flank
+     */
+    public void setPreTriggerTime(int milliseconds) {
+        preTriggerTime = Math.max(0, milliseconds);
+        createHistory();
+    }
+
+    public int getPreTriggerTime() {
+        return preTriggerTime;
+    }
+
+    private void createHistory() {
+        history = new short[(int) (sampleFrequency * preTriggerTime * 0.001)];
+        historyPosition = 0;
+        historyCount = 0;
     }
 
     public int getSampleRate() {
@@ -101,17 +132,35 @@ public class RawDecoder implements ProtocolDecoder, ProtocolSampler {
 
     private void restartSampler(int samples) {
         sampleCount = 0;
-        pulsePositions = new LinkedList<Integer>();
-        this.samples = new ArrayList<Integer>(samples + 1);
-        pulseLengths = new LinkedList<Double>();
+        pulses.clear();
+        if (this.samples.length < samples) {
+            this.samples = new short[samples];
+        }
         maxSampleLength = samples;
     }
 
+    /**
+     * Put the samples in the history buffer first in the capture buffer
+     */
+    private void copyHistory() {
+        int start = historyPosition - historyCount;
+        if (start < 0) {
+            start += history.length;
+            System.arraycopy(history, start, samples, 0, history.length - start);
+            System.arraycopy(history, 0, samples, history.length - start, historyPosition);
+        } else {
+            System.arraycopy(history, start, samples, 0, historyCount);
+        }
+        sampleCount = historyCount;
+    }
+
     public void addSample(int sample) {
         calculateSignalLevel(sample);
+        if (history.length > 0) {
+            addToHistory(toShort(sample));
+        }
         if (isSampling || isFreeSampling) {
-            samples.add(sample);
-            sampleCount++;
+            samples[sampleCount++] = toShort(sample);
             if (sampleCount >= maxSampleLength) {
                 boolean trimEnd = !isFreeSampling;
                 ReportMessage(trimEnd);
@@ -120,6 +169,53 @@ public class RawDecoder implements ProtocolDecoder, ProtocolSampler {
         }
     }
 
+    public void addSamples(int[] samples, int offset, int length) {
+        int i = offset;
+        int end = offset + length;
+        while (i < end) {
+            if (isSampling || isFreeSampling) {
+                int count = Math.min(end - i, maxSampleLength - sampleCount);
+                short buffer[] = this.samples;
+                int position = sampleCount;
+                for (int last = i + count; i < last; i++) {
+                    calculateSignalLevel(samples[i]);
+                    buffer[position] = toShort(samples[i]);
+                    if (history.length > 0) {
+                        addToHistory(buffer[position]);
+                    }
+                    position++;
+                }
+                sampleCount = position;
+                if (sampleCount >= maxSampleLength) {
+                    boolean trimEnd = !isFreeSampling;
+                    ReportMessage(trimEnd);
+                    stopSampler();
+                }
+            } else {
+                for (; i < end; i++) {
+                    calculateSignalLevel(samples[i]);
+                    if (history.length > 0) {
+                        addToHistory(toShort(samples[i]));
+                    }
+                }
+            }
+        }
+    }
+
+    private void addToHistory(short sample) {
+        history[historyPosition] = sample;
+        if (++historyPosition == history.length) {
+            historyPosition = 0;
+        }
+        if (historyCount < history.length) {
+            historyCount++;
+        }
+    }
+
+    private static short toShort(int sample) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+    }
+
     private void calculateSignalLevel(int sample) {
         int absSample = Math.abs(sample);
         if (signalLevel < absSample) signalLevel = absSample;
@@ -136,22 +232,23 @@ public class RawDecoder implements ProtocolDecoder, ProtocolSampler {
             case IDLE: {
                 if ((pulseLength > 0.0) && (pulseLength < 200000.0) && !isMarkPulse) {
                     if (!isFreeSampling) {
-                        restartSampler(maxMessageLength);
+                        restartSampler(maxMessageLength + historyCount);
+                        copyHistory();
                     }
                     isSampling = true;
-                    addPulse(pulseLength);
+                    addPulse(pulseLength, isMarkPulse);
                     state = READING_MESSAGE;
                 }
                 break;
             }
             case READING_MESSAGE: {
-                if ((pulseLength == 0) && isMarkPulse && (pulsePositions.size() > 0)) {
+                if ((pulseLength == 0) && isMarkPulse && (pulses.size() > 0)) {
                     removeLastSpacePulseToBeReplacedByNext();
                 } else if ((pulseLength < RAW_MESSAGE_END_GAP) || isFreeSampling) {
-                    addPulse(pulseLength);
+                    addPulse(pulseLength, isMarkPulse);
                 } else {
                     // It has been a long space, so we got our message.
-                    if (pulsePositions.size() >= MIN_PULSES_PER_SAMPLE && pulseLength > 0) {
+                    if (pulses.size() >= MIN_PULSES_PER_SAMPLE && pulseLength > 0) {
                         ReportMessage(true);
                     }
                     stopSampler();
@@ -165,21 +262,27 @@ public class RawDecoder implements ProtocolDecoder, ProtocolSampler {
     }
 
     private void removeLastSpacePulseToBeReplacedByNext() {
-        pulsePositions.removeLast();
-        pulseLengths.removeLast();
+        pulses.removeLast();
     }
 
-    private void addPulse(double pulse) {
-        pulsePositions.add(sampleCount);
-        pulseLengths.add(pulse);
+    private void addPulse(double pulse, boolean isMark) {
+        pulses.add(pulse, isMark, sampleCount);
     }
 
     private void ReportMessage(boolean trimEnd) {
         // First we trim  off the space from the samples
-        for (int i = samples.size() - 1; trimEnd && (i > sampleCountAtLastPulse); i--) {
-            samples.remove(i);
+        SampleWindow captured = SampleWindow.view(samples, 0, sampleCount);
+        if (trimEnd) {
+            captured = captured.window(0, Math.min(sampleCount, sampleCountAtLastPulse + 1));
+        }
+        int pulseCount = pulses.size();
+        int positions[] = new int[pulseCount];
+        double lengths[] = new double[pulseCount];
+        for (int i = 0; i < pulseCount; i++) {
+            positions[i] = (int) pulses.getSamplePosition(i);
+            lengths[i] = pulses.getLength(i);
         }
-        RawProtocolMessage message = new RawProtocolMessage(pulsePositions, samples, sampleFrequency, pulseLengths);
+        RawProtocolMessage message = new RawProtocolMessage(positions, lengths, captured.copy(), sampleFrequency);
         // Report the parsed message
         decoderSink.parsedMessage(message);
     }
@@ -27,10 +27,12 @@ import nu.nethome.util.ps.ProtocolDecoder;
  * This flank detector that uses a fairly simple algorithm which just measures
  * rate of change by comparing the current sample with a sample a couple samples back.
  * It also uses a FIR-filter for smoothing noisy signals.
+ * Subclasses which override {@link #addSample(int)} should also override {@link #addSamples(int[], int, int)}
+ * since blocks of samples are processed directly without calling addSample.
  * 
  * @author Stefan
  */
-public class SimpleFlankDetector implements ProtocolSampler {
+public class SimpleFlankDetector implements BlockProtocolSampler {
 
     final static double PUSH_PERIOD = 200e-3;
     public static final int NO_FLANK = -1;
@@ -53,6 +55,17 @@ public class SimpleFlankDetector implements ProtocolSampler {
 	protected int m_PulseWidthCompensation = 0;
 	
 	public void addSample(int sample) {
+		detectFlank(sample);
+	}
+
+	public void addSamples(int[] samples, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			detectFlank(samples[i]);
+		}
+	}
+
+	private void detectFlank(int sample) {
 
 		// Detect if there is a new flank in the data stream
 		int flankDirection  = 0;
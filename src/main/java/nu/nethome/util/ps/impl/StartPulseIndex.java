@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * An interval index which finds the decoders whose start pulse windows contain a given pulse length.
+ * The pulse length axis is split into segments at every window limit and each segment holds
+ * the decoders covering it, so a lookup is a binary search and does not allocate.
+ *
+ * @author Stefan
+ */
+class StartPulseIndex {
+
+    private static final int NONE[] = new int[0];
+
+    private final List<double[]> windows = new ArrayList<double[]>();
+    private final List<Integer> owners = new ArrayList<Integer>();
+    private double bounds[] = new double[0];
+    private int segments[][] = new int[0][];
+
+    /**
+     * Add a window. Must be called before build.
+     *
+     * @param lowerLimit lowest pulse length in the window
+     * @param upperLimit highest pulse length in the window
+     * @param decoder    index of the decoder owning the window
+     */
+    void add(double lowerLimit, double upperLimit, int decoder) {
+        windows.add(new double[]{lowerLimit, Math.nextUp(upperLimit)});
+        owners.add(decoder);
+    }
+
+    void build() {
+        TreeSet<Double> limits = new TreeSet<Double>();
+        for (double window[] : windows) {
+            limits.add(window[0]);
+            limits.add(window[1]);
+        }
+        bounds = new double[limits.size()];
+        int i = 0;
+        for (double limit : limits) {
+            bounds[i++] = limit;
+        }
+        segments = new int[Math.max(0, bounds.length - 1)][];
+        for (int segment = 0; segment < segments.length; segment++) {
+            TreeSet<Integer> covering = new TreeSet<Integer>();
+            for (int w = 0; w < windows.size(); w++) {
+                double window[] = windows.get(w);
+                if (window[0] <= bounds[segment] && window[1] >= bounds[segment + 1]) {
+                    covering.add(owners.get(w));
+                }
+            }
+            int decoders[] = new int[covering.size()];
+            int d = 0;
+            for (int decoder : covering) {
+                decoders[d++] = decoder;
+            }
+            segments[segment] = decoders;
+        }
+    }
+
+    /**
+     * @param pulseLength pulse length to look up
+     * @return indexes of the decoders with a window containing the pulse length
+     */
+    int[] lookup(double pulseLength) {
+        int position = Arrays.binarySearch(bounds, pulseLength);
+        int segment = position >= 0 ? position : -position - 2;
+        if (segment < 0 || segment >= segments.length) {
+            return NONE;
+        }
+        return segments[segment];
+    }
+}
@@ -0,0 +1,435 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import nu.nethome.util.ps.PulseSequence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Sends messages via a {@link PulseTransmitter} in a separate thread, so callers do not have to wait
+ * while messages are transmitted. Each queued message gets a Future which is completed with the result
+ * of the transmission. Messages with higher priority are sent first, and messages with the same priority
+ * in the order they were queued. If an identical message is already waiting in the queue, no new message
+ * is queued, instead the caller shares the transmission of the waiting message. Each caller gets its own
+ * Future, so a caller can cancel its Future without affecting the others; the message is only dropped
+ * when all callers have cancelled it before it was started.
+ * The queue is bounded. When it is full {@link #submit} waits for room in the queue while {@link #offer}
+ * returns null at once.
+ *
+ * @author Stefan
+ */
+public class TransmitQueue {
+
+    public static final int NORMAL_PRIORITY = 0;
+
+    private class Request implements Comparable<Request> {
+        final int message[];
+        final int repeat;
+        final int repeatOffset;
+        int priority;
+        final long sequence;
+        final long queuedTime;
+        final List<Handle> handles = new ArrayList<Handle>();
+        boolean isStarted = false;
+        boolean result = false;
+        RuntimeException failure = null;
+
+        Request(int message[], int repeat, int repeatOffset, int priority, long sequence) {
+            this.message = message;
+            this.repeat = repeat;
+            this.repeatOffset = repeatOffset;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.queuedTime = System.nanoTime();
+        }
+
+        boolean isSameMessage(int message[], int repeat, int repeatOffset) {
+            return this.repeat == repeat && this.repeatOffset == repeatOffset && Arrays.equals(this.message, message);
+        }
+
+        Handle addHandle() {
+            Handle handle = new Handle(this);
+            handles.add(handle);
+            return handle;
+        }
+
+        public int compareTo(Request other) {
+            if (priority != other.priority) {
+                return priority > other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * The Future of one caller. Identical messages share one Request, but each caller gets its own
+     * Handle, so cancelling one of them does not affect the others. A request is removed from the
+     * queue when all its handles are cancelled. Once the transmission has started it cannot be cancelled.
+     */
+    private class Handle extends FutureTask<Boolean> {
+        private final Request request;
+
+        Handle(final Request request) {
+            super(new Callable<Boolean>() {
+                public Boolean call() {
+                    if (request.failure != null) {
+                        throw request.failure;
+                    }
+                    return request.result;
+                }
+            });
+            this.request = request;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            lock.lock();
+            try {
+                if (request.isStarted || !super.cancel(false)) {
+                    return false;
+                }
+                request.handles.remove(this);
+                if (request.handles.isEmpty() && queue.remove(request)) {
+                    notFull.signal();
+                }
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private final PulseTransmitter transmitter;
+    private final int capacity;
+    private final PriorityQueue<Request> queue;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Thread worker;
+    private long sequence = 0;
+    private boolean isClosed = false;
+
+    // Statistics
+    private volatile long sentCount = 0;
+    private volatile long failedCount = 0;
+    private volatile long coalescedCount = 0;
+    private volatile long rejectedCount = 0;
+    private volatile long lastQueueLatency = 0;
+    private volatile long maxQueueLatency = 0;
+    private volatile long firstSendTime = 0;
+    private volatile long lastSendTime = 0;
+
+    /**
+     * Create a queue and start its transmitter thread
+     *
+     * @param transmitter port to transmit the messages with
+     * @param capacity    maximum number of messages waiting in the queue
+     */
+    public TransmitQueue(PulseTransmitter transmitter, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Bad transmit queue capacity: " + capacity);
+        }
+        this.transmitter = transmitter;
+        this.capacity = capacity;
+        queue = new PriorityQueue<Request>(capacity);
+        worker = new Thread("Transmitter") {
+            public void run() {
+                transmitQueuedMessages();
+            }
+        };
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Queue a message with normal priority, waiting for room in the queue if it is full.
+     * See {@link PulseTransmitter#playMessage(int[], int, int)} for the parameters.
+     *
+     * @return Future which gives the result of the transmission
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    public Future<Boolean> submit(int message[], int repeat, int repeatOffset) throws InterruptedException {
+        return submit(message, repeat, repeatOffset, NORMAL_PRIORITY);
+    }
+
+    /**
+     * Queue a message, waiting for room in the queue if it is full.
+     * See {@link PulseTransmitter#playMessage(int[], int, int)} for the parameters.
+     *
+     * @param priority Messages with higher priority are sent first
+     * @return Future which gives the result of the transmission
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    public Future<Boolean> submit(int message[], int repeat, int repeatOffset, int priority) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Handle waiting = findQueued(message, repeat, repeatOffset, priority);
+            if (waiting != null) {
+                return waiting;
+            }
+            while (queue.size() >= capacity && !isClosed) {
+                notFull.await();
+            }
+            // An identical message may have been queued while we waited
+            waiting = findQueued(message, repeat, repeatOffset, priority);
+            if (waiting != null) {
+                return waiting;
+            }
+            return enqueue(message, repeat, repeatOffset, priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queue a pulse sequence, waiting for room in the queue if it is full.
+     *
+     * @param sequence pulses to transmit
+     * @param priority Messages with higher priority are sent first
+     * @return Future which gives the result of the transmission
+     * @throws InterruptedException if interrupted while waiting for room in the queue
+     */
+    public Future<Boolean> submit(PulseSequence sequence, int priority) throws InterruptedException {
+        return submit(sequence.getMessage(), sequence.getRepeatCount(), sequence.getRepeatOffset(), priority);
+    }
+
+    /**
+     * Queue a message if there is room in the queue.
+     * See {@link PulseTransmitter#playMessage(int[], int, int)} for the parameters.
+     *
+     * @param priority Messages with higher priority are sent first
+     * @return Future which gives the result of the transmission, or null if the queue is full
+     */
+    public Future<Boolean> offer(int message[], int repeat, int repeatOffset, int priority) {
+        lock.lock();
+        try {
+            Handle waiting = findQueued(message, repeat, repeatOffset, priority);
+            if (waiting != null) {
+                return waiting;
+            }
+            if (queue.size() >= capacity) {
+                rejectedCount++;
+                return null;
+            }
+            return enqueue(message, repeat, repeatOffset, priority);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting new messages. Messages already in the queue are still sent, after that
+     * the transmitter thread ends.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            isClosed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the queue and wait for all queued messages to be sent
+     *
+     * @param timeout maximum time to wait in milliseconds
+     * @return true if all messages were sent within the time
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean closeAndWait(long timeout) throws InterruptedException {
+        close();
+        worker.join(timeout);
+        return !worker.isAlive();
+    }
+
+    private Handle findQueued(int message[], int repeat, int repeatOffset, int priority) {
+        for (Request request : queue) {
+            if (request.isSameMessage(message, repeat, repeatOffset)) {
+                if (priority > request.priority) {
+                    // Reinsert to get the new place in the queue
+                    queue.remove(request);
+                    request.priority = priority;
+                    queue.add(request);
+                }
+                coalescedCount++;
+                return request.addHandle();
+            }
+        }
+        return null;
+    }
+
+    private Handle enqueue(int message[], int repeat, int repeatOffset, int priority) {
+        if (isClosed) {
+            throw new IllegalStateException("Transmit queue is closed");
+        }
+        Request request = new Request(message.clone(), repeat, repeatOffset, priority, sequence++);
+        Handle handle = request.addHandle();
+        queue.add(request);
+        notEmpty.signal();
+        return handle;
+    }
+
+    private Request take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty()) {
+                if (isClosed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            Request request = queue.poll();
+            request.isStarted = true;
+            notFull.signal();
+            return request;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void transmitQueuedMessages() {
+        try {
+            Request request;
+            while ((request = take()) != null) {
+                transmit(request);
+            }
+        } catch (InterruptedException e) {
+            // Just exit
+        }
+    }
+
+    private void transmit(Request request) {
+        long start = System.nanoTime();
+        long latency = start - request.queuedTime;
+        lastQueueLatency = latency;
+        if (latency > maxQueueLatency) {
+            maxQueueLatency = latency;
+        }
+        if (firstSendTime == 0) {
+            firstSendTime = start;
+        }
+        try {
+            request.result = send(request.message, request.repeat, request.repeatOffset);
+        } catch (RuntimeException e) {
+            request.failure = e;
+        }
+        // No handles are added or removed once the request is started
+        for (Handle handle : request.handles) {
+            handle.run();
+        }
+    }
+
+    /**
+     * Statistics are updated before the result is made available in the future, so a caller
+     * waiting for the result sees the updated counters.
+     */
+    private boolean send(int message[], int repeat, int repeatOffset) {
+        boolean success = false;
+        try {
+            success = transmitter.playMessage(message, repeat, repeatOffset);
+            return success;
+        } finally {
+            if (success) {
+                sentCount++;
+            } else {
+                failedCount++;
+            }
+            lastSendTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return Number of messages waiting in the queue
+     */
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Number of messages successfully sent
+     */
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * @return Number of messages where the transmission failed
+     */
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * @return Number of messages which were merged with an identical message already in the queue
+     */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * @return Number of messages not queued by offer since the queue was full
+     */
+    public long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * The queue latency is the time from when a message is queued until its transmission starts.
+     *
+     * @return Latest queue latency in uS
+     */
+    public long getLastQueueLatency() {
+        return lastQueueLatency / 1000;
+    }
+
+    /**
+     * @return The highest queue latency in uS
+     */
+    public long getMaxQueueLatency() {
+        return maxQueueLatency / 1000;
+    }
+
+    /**
+     * @return Average number of transmitted messages per second, from the start of the first
+     * transmission to the end of the latest
+     */
+    public double getSendRate() {
+        long time = lastSendTime - firstSendTime;
+        long count = sentCount + failedCount;
+        return time > 0 ? count * 1000000000.0 / time : 0.0;
+    }
+}
@@ -0,0 +1,99 @@
+package nu.nethome.util.ps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class CachingProtocolEncoderTest {
+
+    ProtocolEncoder encoder;
+    EncodedMessageCache cache;
+    CachingProtocolEncoder cachingEncoder;
+
+    @Before
+    public void setUp() throws Exception {
+        encoder = mock(ProtocolEncoder.class);
+        when(encoder.encode(any(Message.class), eq(ProtocolEncoder.Phase.FIRST))).thenReturn(new int[]{1});
+        when(encoder.encode(any(Message.class), eq(ProtocolEncoder.Phase.REPEATED))).thenReturn(new int[]{10, 11});
+        cache = new EncodedMessageCache(2);
+        cachingEncoder = new CachingProtocolEncoder(encoder, cache);
+    }
+
+    private Message message(int value) {
+        ProtocolMessage message = new ProtocolMessage("Test", 0, 0, 0);
+        message.addField(new FieldValue("Value", value));
+        return message;
+    }
+
+    @Test
+    public void encodesSameMessageOnce() throws Exception {
+        assertThat(cachingEncoder.encode(message(1), ProtocolEncoder.Phase.FIRST)[0], is(1));
+        assertThat(cachingEncoder.encode(message(1), ProtocolEncoder.Phase.REPEATED)[1], is(11));
+        verify(encoder, times(1)).encode(any(Message.class), eq(ProtocolEncoder.Phase.REPEATED));
+        assertThat(cache.getMisses(), is(1L));
+        assertThat(cache.getHits(), is(1L));
+    }
+
+    @Test
+    public void differentFieldsAreDifferentMessages() throws Exception {
+        cachingEncoder.encode(message(1), ProtocolEncoder.Phase.FIRST);
+        cachingEncoder.encode(message(2), ProtocolEncoder.Phase.FIRST);
+        assertThat(cache.getMisses(), is(2L));
+        assertThat(cache.size(), is(2));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws Exception {
+        cachingEncoder.encode(message(1), ProtocolEncoder.Phase.FIRST);
+        cachingEncoder.encode(message(2), ProtocolEncoder.Phase.FIRST);
+        cachingEncoder.encode(message(1), ProtocolEncoder.Phase.FIRST);
+        cachingEncoder.encode(message(3), ProtocolEncoder.Phase.FIRST);
+        assertThat(cache.getEvictions(), is(1L));
+        cachingEncoder.encode(message(1), ProtocolEncoder.Phase.FIRST);
+        assertThat(cache.getHits(), is(2L));
+        cachingEncoder.encode(message(2), ProtocolEncoder.Phase.FIRST);
+        assertThat(cache.getMisses(), is(4L));
+    }
+
+    @Test
+    public void resultCanBeModified() throws Exception {
+        cachingEncoder.encode(message(1), ProtocolEncoder.Phase.REPEATED)[0] = 99;
+        assertThat(cachingEncoder.encode(message(1), ProtocolEncoder.Phase.REPEATED)[0], is(10));
+    }
+
+    @Test
+    public void sequenceHasRequestedRepeats() throws Exception {
+        PulseSequence sequence = MessageRepeater.sequence(cachingEncoder, message(1), 3);
+        assertThat(sequence.length(), is(7));
+        assertThat(MessageRepeater.sequence(cachingEncoder, message(1), 5).length(), is(11));
+        assertThat(cache.getHits(), is(1L));
+    }
+
+    @Test
+    public void encoderClassIsPartOfKey() throws Exception {
+        ProtocolEncoder otherEncoder = new ProtocolEncoder() {
+            public ProtocolInfo getInfo() {
+                return null;
+            }
+
+            public int[] encode(Message message, Phase phase) {
+                return new int[]{2};
+            }
+
+            public int modulationFrequency(Message message) {
+                return 0;
+            }
+        };
+        cachingEncoder.encode(message(1), ProtocolEncoder.Phase.FIRST);
+        CachingProtocolEncoder other = new CachingProtocolEncoder(otherEncoder, cache);
+        assertThat(other.encode(message(1), ProtocolEncoder.Phase.FIRST)[0], is(2));
+    }
+}
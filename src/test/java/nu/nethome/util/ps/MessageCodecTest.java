@@ -0,0 +1,243 @@
+package nu.nethome.util.ps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class MessageCodecTest {
+
+    /**
+     * Returns at most one byte per read, to exercise the buffer refill of the reader
+     */
+    private static class TrickleInputStream extends ByteArrayInputStream {
+        TrickleInputStream(byte data[]) {
+            super(data);
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+
+    private ByteArrayOutputStream bytes;
+    private MessageWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        bytes = new ByteArrayOutputStream();
+        writer = new MessageWriter(Channels.newChannel(bytes));
+    }
+
+    private MessageReader reader() throws IOException {
+        writer.close();
+        return reader(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private MessageReader reader(InputStream in) throws IOException {
+        return new MessageReader(Channels.newChannel(in));
+    }
+
+    private ProtocolMessage createMessage() {
+        ProtocolMessage message = new ProtocolMessage("Nexa", 1, 0x12345, new int[]{0x12, -3, 255});
+        message.setRepeat(3);
+        message.setInterpretation("On");
+        message.addField(new FieldValue("Button", 2));
+        message.addField(new FieldValue("Name", "Hall ÅÄÖ"));
+        message.addField(new FieldValue("Negative", -100000));
+        return message;
+    }
+
+    private RawProtocolMessage createRawMessage(short samples[], double lengths[]) {
+        int positions[] = new int[lengths.length];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = i * 20;
+        }
+        return new RawProtocolMessage(positions, lengths, new SampleWindow(samples), 44100);
+    }
+
+    private static short[] samples(int count, int amplitude) {
+        short result[] = new short[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = (short) (((i / 20) % 2 == 0) ? amplitude : -amplitude);
+        }
+        return result;
+    }
+
+    @Test
+    public void protocolMessageRoundTrip() throws Exception {
+        writer.write(createMessage());
+        MessageReader reader = reader();
+        ProtocolMessage message = reader.read();
+        assertThat(message.getProtocol(), is("Nexa"));
+        assertThat(message.getCommand(), is(1));
+        assertThat(message.getAddress(), is(0x12345));
+        assertThat(message.getRepeat(), is(3));
+        assertThat(message.getRawMessage(), is(new int[]{0x12, -3, 255}));
+        assertThat(message.getInterpretation(), is("On"));
+        assertThat(message.getFields(), is(createMessage().getFields()));
+        assertThat(reader.read(), is(nullValue()));
+    }
+
+    @Test
+    public void rawMessageRoundTrip() throws Exception {
+        double lengths[] = {375.0, 1125.0, 375.0, 10000.0};
+        writer.write(createRawMessage(samples(1000, 100), lengths));
+        ProtocolMessage result = reader().read();
+        assertThat(result instanceof RawProtocolMessage, is(true));
+        RawProtocolMessage message = (RawProtocolMessage) result;
+        assertThat(message.getProtocol(), is("Raw"));
+        assertThat(message.getCommand(), is(4));
+        assertThat(message.m_SampleFrequency, is(44100));
+        assertThat(message.m_PulseList, is(Arrays.asList(0, 20, 40, 60)));
+        assertThat(message.m_PulseLengths, is(new LinkedList<Double>(Arrays.asList(375.0, 1125.0, 375.0, 10000.0))));
+        assertThat(message.getSamples().toArray(), is(samples(1000, 100)));
+        // 8 bit samples take one byte each
+        assertThat(bytes.size() < 1100, is(true));
+    }
+
+    @Test
+    public void wideSamplesAndFractionalLengths() throws Exception {
+        double lengths[] = {22.675736961451246, 1133.7868480725624};
+        writer.write(createRawMessage(samples(5000, 1000), lengths));
+        RawProtocolMessage message = (RawProtocolMessage) reader(new TrickleInputStream(toBytes())).read();
+        assertThat(message.m_PulseLengths.getFirst(), is(22.675736961451246));
+        assertThat(message.m_PulseLengths.getLast(), is(1133.7868480725624));
+        assertThat(message.getSamples().toArray(), is(samples(5000, 1000)));
+    }
+
+    @Test
+    public void legacyRawMessage() throws Exception {
+        LinkedList<Double> lengths = new LinkedList<Double>(Arrays.asList(100.0, 200.0));
+        writer.write(new RawProtocolMessage(Arrays.asList(3, 7), Arrays.asList(1, -2, 3), 22000, lengths));
+        RawProtocolMessage message = (RawProtocolMessage) reader().read();
+        assertThat(message.m_PulseList, is(Arrays.asList(3, 7)));
+        assertThat(message.m_Samples, is(Arrays.asList(1, -2, 3)));
+        assertThat(message.m_PulseLengths, is(lengths));
+    }
+
+    @Test
+    public void namesAreInterned() throws Exception {
+        writer.write(createMessage());
+        writer.flush();
+        int first = bytes.size();
+        writer.write(createMessage());
+        writer.flush();
+        int second = bytes.size() - first;
+        assertThat(second < first - 20, is(true));
+        MessageReader reader = reader();
+        assertThat(reader.read().getFields(), is(createMessage().getFields()));
+        assertThat(reader.read().getFields(), is(createMessage().getFields()));
+        assertThat(reader.read(), is(nullValue()));
+    }
+
+    @Test
+    public void nullValues() throws Exception {
+        ProtocolMessage message = new ProtocolMessage("Test", 0, 0, null);
+        message.setInterpretation(null);
+        writer.write(message);
+        ProtocolMessage result = reader().read();
+        assertThat(result.getRawMessage(), is(nullValue()));
+        assertThat(result.getInterpretation(), is(nullValue()));
+    }
+
+    @Test
+    public void manyMessagesThroughSmallReads() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            writer.write(createMessage());
+        }
+        MessageReader reader = reader(new TrickleInputStream(toBytes()));
+        int count = 0;
+        while (reader.read() != null) {
+            count++;
+        }
+        assertThat(count, is(200));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void rejectsOtherStreams() throws Exception {
+        reader(new ByteArrayInputStream("Hello world".getBytes("UTF-8")));
+    }
+
+    @Test(expected = EOFException.class)
+    public void truncatedMessage() throws Exception {
+        writer.write(createMessage());
+        byte data[] = toBytes();
+        reader(new ByteArrayInputStream(Arrays.copyOf(data, data.length - 3))).read();
+    }
+
+    @Test
+    public void largestMessageRoundTrip() throws Exception {
+        char name[] = new char[MessageCodec.MAX_LENGTH];
+        Arrays.fill(name, 'x');
+        double lengths[] = new double[MessageCodec.MAX_SAMPLES / 20];
+        Arrays.fill(lengths, 375.0);
+        RawProtocolMessage written = createRawMessage(samples(MessageCodec.MAX_SAMPLES, 1000), lengths);
+        written.addField(new FieldValue("Name", new String(name)));
+        writer.write(written);
+        RawProtocolMessage message = (RawProtocolMessage) reader().read();
+        assertThat(message.getSamples().toArray(), is(samples(MessageCodec.MAX_SAMPLES, 1000)));
+        assertThat(message.m_PulseLengths.size(), is(lengths.length));
+        assertThat(message.getFields().get(0).getStringValue().length(), is(MessageCodec.MAX_LENGTH));
+    }
+
+    @Test
+    public void tooLargeMessageIsNotWritten() throws Exception {
+        try {
+            writer.write(createRawMessage(samples(MessageCodec.MAX_SAMPLES + 1, 1), new double[]{375.0}));
+            fail("Too large message was written");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        char name[] = new char[MessageCodec.MAX_LENGTH + 1];
+        Arrays.fill(name, 'x');
+        ProtocolMessage message = createMessage();
+        message.addField(new FieldValue("Name", new String(name)));
+        try {
+            writer.write(message);
+            fail("Too long string was written");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        // Nothing of the rejected messages is in the stream, so the next message can be read
+        writer.write(createMessage());
+        MessageReader reader = reader();
+        assertThat(reader.read().getProtocol(), is("Nexa"));
+        assertThat(reader.read(), is(nullValue()));
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void rejectsCorruptSampleCount() throws Exception {
+        byte data[] = {'N', 'H', 'P', 'M', 1,
+                2, 0, 2, 'X', 0, 0, 0, 0, 0, 0, 0,          // Raw message "X" with no interpretation or fields
+                0, 0, 0, 0,                                // Frequency, no pulses, integer lengths
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07, 0}; // 2^31 - 1 byte samples
+        reader(new ByteArrayInputStream(data)).read();
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void rejectsCorruptStringLength() throws Exception {
+        byte data[] = {'N', 'H', 'P', 'M', 1,
+                1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x7F}; // Protocol name of 256 MB
+        reader(new ByteArrayInputStream(data)).read();
+    }
+
+    private byte[] toBytes() throws IOException {
+        writer.close();
+        return bytes.toByteArray();
+    }
+}
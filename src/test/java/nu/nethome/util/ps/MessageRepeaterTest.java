@@ -67,4 +67,16 @@ public class MessageRepeaterTest {
         assertThat(result[9], is(19));
         assertThat(result[10], is(10));
     }
+
+    @Test
+    public void sequenceDoesNotCopyRepeats() throws BadMessageException {
+        PulseSequence sequence = MessageRepeater.sequence(encoder, mess, 50);
+        assertThat(sequence.length(), is(501));
+        assertThat(sequence.getRepeatCount(), is(50));
+        assertThat(sequence.getRepeatOffset(), is(1));
+        assertThat(sequence.get(0), is(1));
+        assertThat(sequence.get(1), is(10));
+        assertThat(sequence.get(500), is(19));
+        assertThat(sequence.getMessage().length, is(11));
+    }
 }
@@ -0,0 +1,57 @@
+package nu.nethome.util.ps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PulseSequenceTest {
+
+    private PulseSequence sequence;
+
+    @Before
+    public void setUp() throws Exception {
+        sequence = new PulseSequence(new int[]{1, 2}, new int[]{10, 11, 12}, 3);
+    }
+
+    @Test
+    public void toArrayGivesCompleteSequence() throws Exception {
+        assertThat(Arrays.toString(sequence.toArray()), is("[1, 2, 10, 11, 12, 10, 11, 12, 10, 11, 12]"));
+    }
+
+    @Test
+    public void canStreamInChunks() throws Exception {
+        int buffer[] = new int[4];
+        StringBuilder result = new StringBuilder();
+        int position = 0;
+        int count;
+        while ((count = sequence.read(position, buffer, 0, buffer.length)) > 0) {
+            result.append(Arrays.toString(Arrays.copyOf(buffer, count)));
+            position += count;
+        }
+        assertThat(result.toString(), is("[1, 2, 10, 11][12, 10, 11, 12][10, 11, 12]"));
+    }
+
+    @Test
+    public void getMessageHasOneRepeat() throws Exception {
+        assertThat(Arrays.toString(sequence.getMessage()), is("[1, 2, 10, 11, 12]"));
+        assertThat(sequence.getRepeatOffset(), is(2));
+    }
+
+    @Test
+    public void isNotAffectedByChangedArrays() throws Exception {
+        int first[] = {1};
+        PulseSequence copy = new PulseSequence(first, new int[]{2}, 1);
+        first[0] = 5;
+        copy.getFirst()[0] = 6;
+        assertThat(copy.get(0), is(1));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void validatesIndex() throws Exception {
+        sequence.get(11);
+    }
+}
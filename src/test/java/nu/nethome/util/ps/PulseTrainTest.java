@@ -0,0 +1,88 @@
+package nu.nethome.util.ps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class PulseTrainTest {
+
+    private PulseTrain pulseTrain;
+
+    @Before
+    public void setUp() throws Exception {
+        pulseTrain = new PulseTrain(2);
+    }
+
+    @Test
+    public void storesPulses() throws Exception {
+        pulseTrain.add(100.4, true, 17);
+        pulseTrain.add(200.6, false);
+
+        assertThat(pulseTrain.size(), is(2));
+        assertThat(pulseTrain.getLength(0), is(100.4));
+        assertThat(pulseTrain.getIntLength(0), is(100));
+        assertThat(pulseTrain.getIntLength(1), is(201));
+        assertThat(pulseTrain.isMark(0), is(true));
+        assertThat(pulseTrain.isMark(1), is(false));
+        assertThat(pulseTrain.getSamplePosition(0), is(17L));
+        assertThat(pulseTrain.getSamplePosition(1), is(PulseTrain.NO_POSITION));
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() throws Exception {
+        for (int i = 0; i < 200; i++) {
+            pulseTrain.add(i, i % 3 == 0);
+        }
+
+        assertThat(pulseTrain.size(), is(200));
+        for (int i = 0; i < 200; i++) {
+            assertThat(pulseTrain.getIntLength(i), is(i));
+            assertThat(pulseTrain.isMark(i), is(i % 3 == 0));
+        }
+    }
+
+    @Test
+    public void clearOverwritesMarks() throws Exception {
+        pulseTrain.add(1, true);
+        pulseTrain.clear();
+        pulseTrain.add(2, false);
+
+        assertThat(pulseTrain.size(), is(1));
+        assertThat(pulseTrain.isMark(0), is(false));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void validatesIndex() throws Exception {
+        pulseTrain.add(1, true);
+        pulseTrain.getLength(1);
+    }
+
+    @Test
+    public void plainDecoderGetsEachPulse() throws Exception {
+        final List<String> parsed = new ArrayList<String>();
+        ProtocolDecoder decoder = new ProtocolDecoder() {
+            public int parse(double pulseLength, boolean state) {
+                parsed.add((state ? "m" : "s") + (int) pulseLength);
+                return parsed.size();
+            }
+
+            public ProtocolInfo getInfo() {
+                return null;
+            }
+
+            public void setTarget(ProtocolDecoderSink sink) {
+            }
+        };
+        pulseTrain.add(10, true);
+        pulseTrain.add(20, false);
+        pulseTrain.add(30, true);
+
+        assertThat(ProtocolDecoders.parse(decoder, pulseTrain), is(3));
+        assertThat(parsed.toString(), is("[m10, s20, m30]"));
+    }
+}
@@ -0,0 +1,79 @@
+package nu.nethome.util.ps;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class SampleWindowTest {
+
+    private short samples[];
+
+    @Before
+    public void setUp() throws Exception {
+        samples = new short[]{0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+    }
+
+    @Test
+    public void constructorCopiesSamples() {
+        SampleWindow window = new SampleWindow(samples);
+        samples[0] = 100;
+        assertThat(window.length(), is(10));
+        assertThat(window.get(0), is((short) 0));
+    }
+
+    @Test
+    public void viewSharesSamples() {
+        SampleWindow window = SampleWindow.view(samples, 2, 5);
+        samples[2] = 100;
+        assertThat(window.get(0), is((short) 100));
+        assertThat(window.length(), is(5));
+    }
+
+    @Test
+    public void windowOfWindow() {
+        SampleWindow window = SampleWindow.view(samples, 2, 6).window(1, 4);
+        assertThat(window.length(), is(3));
+        assertThat(window.toArray(), is(new short[]{3, 4, 5}));
+        assertThat(window.asList(), is(Arrays.asList(3, 4, 5)));
+        short destination[] = new short[5];
+        window.copyTo(destination, 1);
+        assertThat(destination, is(new short[]{0, 3, 4, 5, 0}));
+    }
+
+    @Test
+    public void copyIsDetached() {
+        SampleWindow copy = SampleWindow.view(samples, 0, 3).copy();
+        samples[0] = 100;
+        assertThat(copy.get(0), is((short) 0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getOutsideWindow() {
+        SampleWindow.view(samples, 2, 3).get(3);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void windowOutsideWindow() {
+        SampleWindow.view(samples, 2, 3).window(1, 4);
+    }
+
+    @Test
+    public void serializesOnlyTheWindow() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(SampleWindow.view(new short[10000], 10, 2));
+        out.close();
+        SampleWindow copy = (SampleWindow) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertThat(copy.length(), is(2));
+        assertThat(bytes.size() < 1000, is(true));
+    }
+}
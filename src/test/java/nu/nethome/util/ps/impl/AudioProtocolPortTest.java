@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class AudioProtocolPortTest {
+
+    private AudioProtocolPort port;
+
+    @Before
+    public void setUp() throws Exception {
+        port = new AudioProtocolPort(new ProtocolSamplerGroup());
+    }
+
+    @Test
+    public void ringBufferHoldsAtLeastTwoReadBlocks() throws Exception {
+        port.setRingBufferSize(1000);
+        assertThat(port.ringBufferCapacity(1), is(8192));
+        ByteRingBuffer ringBuffer = new ByteRingBuffer(port.ringBufferCapacity(1));
+        assertThat(ringBuffer.offer(new byte[4096], 0, 4096), is(true));
+        assertThat(ringBuffer.offer(new byte[4096], 0, 4096), is(true));
+    }
+
+    @Test
+    public void ringBufferFollowsReadBufferSize() throws Exception {
+        port.setRingBufferSize(1000);
+        port.setReadBufferSize(10001);
+        assertThat(port.ringBufferCapacity(2), is(20000));
+    }
+
+    @Test
+    public void largerRingBufferIsKept() throws Exception {
+        port.setRingBufferSize(65536);
+        assertThat(port.ringBufferCapacity(2), is(65536));
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ByteRingBufferTest {
+
+    ByteRingBuffer buffer;
+
+    @Before
+    public void setUp() throws Exception {
+        buffer = new ByteRingBuffer(6);
+    }
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() throws Exception {
+        assertThat(buffer.capacity(), is(8));
+        assertThat(new ByteRingBuffer(8).capacity(), is(8));
+    }
+
+    @Test
+    public void readsWhatWasWritten() throws Exception {
+        byte data[] = {1, 2, 3, 4, 5};
+        byte result[] = new byte[10];
+
+        assertThat(buffer.offer(data, 1, 3), is(true));
+        assertThat(buffer.available(), is(3));
+        assertThat(buffer.read(result, 0, 10), is(3));
+        assertThat(result[0], is((byte) 2));
+        assertThat(result[2], is((byte) 4));
+        assertThat(buffer.available(), is(0));
+        assertThat(buffer.read(result, 0, 10), is(0));
+    }
+
+    @Test
+    public void wrapsAround() throws Exception {
+        byte data[] = {1, 2, 3, 4, 5, 6};
+        byte result[] = new byte[6];
+
+        buffer.offer(data, 0, 6);
+        buffer.read(result, 0, 4);
+        assertThat(buffer.offer(data, 0, 6), is(true));
+        assertThat(buffer.read(result, 0, 6), is(6));
+        assertThat(result[0], is((byte) 5));
+        assertThat(result[1], is((byte) 6));
+        assertThat(result[2], is((byte) 1));
+        assertThat(result[5], is((byte) 4));
+    }
+
+    @Test
+    public void dropsWholeBlockWhenFull() throws Exception {
+        byte data[] = {1, 2, 3, 4, 5, 6};
+
+        assertThat(buffer.offer(data, 0, 6), is(true));
+        assertThat(buffer.offer(data, 0, 3), is(false));
+        assertThat(buffer.available(), is(6));
+        assertThat(buffer.getOverrunCount(), is(1L));
+        assertThat(buffer.getDroppedCount(), is(3L));
+        assertThat(buffer.getHighWaterMark(), is(6));
+    }
+
+    @Test
+    public void passesDataBetweenThreads() throws Exception {
+        final int total = 100000;
+        final ByteRingBuffer ring = new ByteRingBuffer(64);
+        Thread producer = new Thread() {
+            public void run() {
+                byte block[] = new byte[10];
+                int next = 0;
+                while (next < total) {
+                    for (int i = 0; i < block.length; i++) {
+                        block[i] = (byte) (next + i);
+                    }
+                    if (ring.offer(block, 0, block.length)) {
+                        next += block.length;
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }
+        };
+        producer.start();
+        byte result[] = new byte[7];
+        int received = 0;
+        boolean inOrder = true;
+        while (received < total) {
+            int count = ring.read(result, 0, result.length);
+            for (int i = 0; i < count; i++) {
+                inOrder &= result[i] == (byte) (received + i);
+            }
+            received += count;
+        }
+        producer.join();
+        assertThat(inOrder, is(true));
+        assertThat(received, is(total));
+    }
+}
@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.PulseTrain;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class CaptureFileTest {
+
+    /**
+     * Records samples and pulses as strings in the order they arrive
+     */
+    private static class Recorder implements ProtocolSampler, ProtocolDecoder {
+        List<String> events = new ArrayList<String>();
+
+        public void addSample(int sample) {
+            events.add("s" + sample);
+        }
+
+        public void setSampleRate(int frequency) {
+        }
+
+        public int parse(double pulseLength, boolean isMarkPulse) {
+            events.add((isMarkPulse ? "m" : "p") + pulseLength);
+            return 0;
+        }
+
+        public ProtocolInfo getInfo() {
+            return null;
+        }
+
+        public void setTarget(ProtocolDecoderSink sink) {
+        }
+    }
+
+    private static final int SAMPLES = 95;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private Recorder recorded;
+
+    @Before
+    public void setUp() throws Exception {
+        file = new File(folder.getRoot(), "capture.nhc");
+        recorded = new Recorder();
+        CaptureFileWriter writer = new CaptureFileWriter(file, "Test source", 10, 3);
+        writer.setSampleRate(1000);
+        for (int i = 0; i < SAMPLES; i++) {
+            if (i % 7 == 0) {
+                writer.parse(i * 10.5, (i & 1) == 0);
+                recorded.parse(i * 10.5, (i & 1) == 0);
+            }
+            writer.addSample(i - 40);
+            recorded.addSample(i - 40);
+        }
+        writer.parse(1, true);
+        recorded.parse(1, true);
+        assertThat(writer.getSampleCount(), is((long) SAMPLES));
+        assertThat(writer.getPulseCount(), is(15L));
+        writer.close();
+        assertThat(writer.isFailed(), is(false));
+    }
+
+    @Test
+    public void readsHeaderAndIndex() throws Exception {
+        CaptureFileReader reader = new CaptureFileReader(file);
+        assertThat(reader.getSource(), is("Test source"));
+        assertThat(reader.getSampleRate(), is(1000));
+        assertThat(Math.abs(reader.getCreationTime() - System.currentTimeMillis()) < 60000, is(true));
+        assertThat(reader.getSampleCount(), is((long) SAMPLES));
+        assertThat(reader.getPulseCount(), is(15L));
+        assertThat(reader.getPosition(50), is(50L));
+        assertThat(reader.getTime(94), is(94L));
+        reader.close();
+    }
+
+    @Test
+    public void readsSamplesAcrossChunks() throws Exception {
+        CaptureFileReader reader = new CaptureFileReader(file);
+        short samples[] = new short[30];
+        assertThat(reader.readSamples(5, samples, 1, 12), is(12));
+        assertThat(samples[1], is((short) -35));
+        assertThat(samples[12], is((short) -24));
+        assertThat(reader.readSamples(90, samples, 0, 30), is(5));
+        assertThat(samples[4], is((short) 54));
+        assertThat(reader.readSamples(SAMPLES, samples, 0, 30), is(0));
+        reader.close();
+    }
+
+    @Test
+    public void readsPulsesInRange() throws Exception {
+        CaptureFileReader reader = new CaptureFileReader(file);
+        PulseTrain pulses = reader.readPulses(10, 30);
+        assertThat(pulses.size(), is(3));
+        assertThat(pulses.getSamplePosition(0), is(14L));
+        assertThat(pulses.getLength(0), is(147.0));
+        assertThat(pulses.isMark(0), is(true));
+        assertThat(pulses.isMark(1), is(false));
+        assertThat(pulses.getSamplePosition(2), is(28L));
+        reader.close();
+    }
+
+    @Test
+    public void replaysInRecordedOrder() throws Exception {
+        CaptureFileReader reader = new CaptureFileReader(file);
+        Recorder replayed = new Recorder();
+        reader.replay(0, reader.getSampleCount(), replayed, replayed);
+        assertThat(replayed.events, is(recorded.events));
+        reader.close();
+    }
+
+    @Test
+    public void replaysPart() throws Exception {
+        CaptureFileReader reader = new CaptureFileReader(file);
+        Recorder replayed = new Recorder();
+        reader.replay(20, 30, replayed, replayed);
+        int first = recorded.events.indexOf("s-20");
+        int last = recorded.events.indexOf("s-10");
+        assertThat(replayed.events, is(recorded.events.subList(first, last)));
+        Recorder pulsesOnly = new Recorder();
+        reader.replay(20, 30, null, pulsesOnly);
+        assertThat(pulsesOnly.events.size(), is(2));
+        reader.close();
+    }
+
+    @Test
+    public void readsAcrossRegionBoundaries() throws Exception {
+        // Regions smaller than chunks and pulses, and regions where some reads run past the end
+        for (int regionSize : new int[]{13, 40, 100}) {
+            CaptureFileReader reader = new CaptureFileReader(file, regionSize);
+            Recorder replayed = new Recorder();
+            reader.replay(0, reader.getSampleCount(), replayed, replayed);
+            assertThat(replayed.events, is(recorded.events));
+            short samples[] = new short[SAMPLES];
+            assertThat(reader.readSamples(0, samples, 0, SAMPLES), is(SAMPLES));
+            assertThat(samples[0], is((short) -40));
+            assertThat(samples[SAMPLES - 1], is((short) 54));
+            assertThat(reader.readPulses(0, SAMPLES + 1).size(), is(15));
+            reader.close();
+        }
+    }
+
+    @Test
+    public void ignoresIncompleteChunkAtEnd() throws Exception {
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+        truncated.setLength(truncated.length() - 5);
+        truncated.close();
+        // The last chunk is the partial sample chunk written at close
+        CaptureFileReader reader = new CaptureFileReader(file);
+        assertThat(reader.getSampleCount(), is(90L));
+        assertThat(reader.getPulseCount(), is(15L));
+        reader.close();
+    }
+
+    @Test
+    public void ignoresSamplesAfterClose() throws Exception {
+        File closed = new File(folder.getRoot(), "closed.nhc");
+        CaptureFileWriter writer = new CaptureFileWriter(closed, "Test source", 10, 3);
+        writer.addSample(1);
+        writer.close();
+        writer.addSample(2);
+        writer.parse(10, true);
+        writer.setSampleRate(1000);
+        writer.close();
+        assertThat(writer.isFailed(), is(false));
+        assertThat(writer.getSampleCount(), is(1L));
+        CaptureFileReader reader = new CaptureFileReader(closed);
+        assertThat(reader.getSampleCount(), is(1L));
+        assertThat(reader.getPulseCount(), is(0L));
+        reader.close();
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void rejectsOtherFiles() throws Exception {
+        File other = new File(folder.getRoot(), "other.txt");
+        FileOutputStream out = new FileOutputStream(other);
+        out.write(new byte[100]);
+        out.close();
+        new CaptureFileReader(other);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsEmptyFiles() throws Exception {
+        new CaptureFileReader(folder.newFile("empty"));
+    }
+}
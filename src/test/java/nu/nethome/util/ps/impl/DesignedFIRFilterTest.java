@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class DesignedFIRFilterTest {
+
+    class TestSampler implements ProtocolSampler {
+        public List<Integer> samples = new ArrayList<Integer>();
+        public int sampleRate = 0;
+
+        public void addSample(int sample) {
+            samples.add(sample);
+        }
+
+        public void setSampleRate(int frequency) {
+            sampleRate = frequency;
+        }
+    }
+
+    TestSampler output;
+
+    @Before
+    public void setUp() throws Exception {
+        output = new TestSampler();
+    }
+
+    @Test
+    public void lowPassHasUnityDcGain() throws Exception {
+        double coefficients[] = FIRFilterDesign.lowPass(3000, 44100, 31);
+        double sum = 0;
+        for (double coefficient : coefficients) {
+            sum += coefficient;
+        }
+        assertTrue(Math.abs(sum - 1.0) < 1e-9);
+    }
+
+    @Test
+    public void decimatesAndReportsReducedSampleRate() throws Exception {
+        DesignedFIRFilter filter = DesignedFIRFilter.lowPass(output, 3000, 31, 4);
+        filter.setSampleRate(44100);
+        int block[] = new int[400];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = 100;
+        }
+
+        filter.addSamples(block, 0, 200);
+        for (int i = 200; i < 400; i++) {
+            filter.addSample(block[i]);
+        }
+
+        assertThat(output.sampleRate, is(44100 / 4));
+        assertThat(output.samples.size(), is(100));
+        int settled = output.samples.get(99);
+        assertTrue(Math.abs(settled - 100) <= 1);
+    }
+
+    @Test
+    public void filtersWhenSampleRateIsNotMultipleOfDecimation() throws Exception {
+        DesignedFIRFilter filter = DesignedFIRFilter.lowPass(output, 2000, 31, 8);
+        filter.setSampleRate(44100);
+        // 44100 = 2^2 * 3^2 * 5^2 * 7^2, so 7 is the largest factor up to 8 which divides it
+        assertThat(filter.getDecimation(), is(7));
+        assertThat(output.sampleRate, is(6300));
+        int block[] = new int[700];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (i & 1) == 0 ? 1000 : -1000;
+        }
+        filter.addSamples(block, 0, block.length);
+        assertThat(output.samples.size(), is(100));
+        for (int i = 10; i < 100; i++) {
+            assertTrue(Math.abs(output.samples.get(i)) < 50);
+        }
+    }
+
+    @Test
+    public void lowPassStopsHighFrequencies() throws Exception {
+        DesignedFIRFilter filter = DesignedFIRFilter.lowPass(output, 3000, 31, 1);
+        filter.setSampleRate(44100);
+        for (int i = 0; i < 200; i++) {
+            filter.addSample((i % 2 == 0) ? 100 : -100);
+        }
+        assertTrue(Math.abs(output.samples.get(199)) <= 2);
+    }
+
+    @Test
+    public void passesThroughWhenInactive() throws Exception {
+        DesignedFIRFilter filter = DesignedFIRFilter.bandPass(output, 1000, 5000, 31, 2);
+        filter.setSampleRate(44100);
+        assertThat(output.sampleRate, is(22050));
+
+        filter.setActive(false);
+        filter.addSample(17);
+
+        assertThat(output.sampleRate, is(44100));
+        assertThat(output.samples.get(0), is(17));
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class FIRFilterTest {
+
+    class TestSampler implements ProtocolSampler {
+        public int samples[] = new int[100];
+        public int count = 0;
+        public int sampleRate = 0;
+
+        public void addSample(int sample) {
+            samples[count++] = sample;
+        }
+
+        public void setSampleRate(int frequency) {
+            sampleRate = frequency;
+        }
+    }
+
+    TestSampler output;
+
+    @Before
+    public void setUp() throws Exception {
+        output = new TestSampler();
+    }
+
+    @Test
+    public void impulseResponseIsCoefficients() throws Exception {
+        int coefficients[] = {4, 8, 12, 16};
+        FIRFilter filter = new FIRFilter(output, coefficients, 2);
+
+        assertThat(filter.filter(1), is(1));
+        assertThat(filter.filter(0), is(2));
+        assertThat(filter.filter(0), is(3));
+        assertThat(filter.filter(0), is(4));
+        assertThat(filter.filter(0), is(0));
+    }
+
+    @Test
+    public void blockGivesSameResultAsSingleSamples() throws Exception {
+        int input[] = new int[60];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (i % 7) * 30 - 100;
+        }
+        FIRFilter6000 single = new FIRFilter6000(output);
+        FIRFilter6000 block = new FIRFilter6000(output);
+        int result[] = new int[input.length];
+
+        block.filter(input, 0, result, 0, input.length);
+
+        for (int i = 0; i < input.length; i++) {
+            assertThat(result[i], is(single.filter(input[i])));
+        }
+    }
+
+    @Test
+    public void passesSamplesThroughWhenInactive() throws Exception {
+        FIRFilter filter = new FIRFilter6000(output);
+        filter.setActive(false);
+        int input[] = {0, 1, 2, 3};
+
+        filter.addSamples(input, 1, 3);
+        filter.setSampleRate(8000);
+
+        assertThat(output.count, is(3));
+        assertThat(output.samples[0], is(1));
+        assertThat(output.samples[2], is(3));
+        assertThat(output.sampleRate, is(8000));
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
+import nu.nethome.util.ps.ProtocolMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ParallelProtocolDecoderGroupTest {
+
+    /**
+     * Reports a message with the pulse number every time it has seen a multiple of its period pulses
+     */
+    class PeriodicDecoder implements ProtocolDecoder {
+        final String name;
+        final int period;
+        final List<Double> pulses = new ArrayList<Double>();
+        ProtocolDecoderSink sink;
+
+        PeriodicDecoder(String name, int period) {
+            this.name = name;
+            this.period = period;
+        }
+
+        public int parse(double pulseLength, boolean state) {
+            pulses.add(pulseLength);
+            if (pulses.size() % period == 0) {
+                sink.parsedMessage(new ProtocolMessage(name, pulses.size(), 0, 0));
+            }
+            return 0;
+        }
+
+        public ProtocolInfo getInfo() {
+            return null;
+        }
+
+        public void setTarget(ProtocolDecoderSink sink) {
+            this.sink = sink;
+        }
+    }
+
+    class CollectingSink implements ProtocolDecoderSink {
+        final List<String> messages = new ArrayList<String>();
+
+        public void parsedMessage(ProtocolMessage message) {
+            messages.add(message.getProtocol() + message.getCommand());
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+        }
+
+        public void reportLevel(int level) {
+        }
+    }
+
+    private ParallelProtocolDecoderGroup group;
+    private CollectingSink sink;
+
+    @Before
+    public void setUp() throws Exception {
+        group = new ParallelProtocolDecoderGroup(3, 7);
+        sink = new CollectingSink();
+        group.setTarget(sink);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        group.close();
+    }
+
+    @Test
+    public void eachDecoderGetsAllPulsesInOrder() {
+        PeriodicDecoder decoders[] = new PeriodicDecoder[5];
+        for (int i = 0; i < decoders.length; i++) {
+            decoders[i] = new PeriodicDecoder("D" + i, 100);
+            group.add(decoders[i]);
+        }
+        for (int i = 0; i < 20; i++) {
+            group.parse(i, (i & 1) == 0);
+        }
+        group.flush();
+        for (PeriodicDecoder decoder : decoders) {
+            assertThat(decoder.pulses.size(), is(20));
+            for (int i = 0; i < 20; i++) {
+                assertThat(decoder.pulses.get(i), is((double) i));
+            }
+        }
+    }
+
+    @Test
+    public void messagesAreReportedInPulseOrder() {
+        group.add(new PeriodicDecoder("A", 3));
+        group.add(new PeriodicDecoder("B", 2));
+        for (int i = 0; i < 6; i++) {
+            group.parse(100, true);
+        }
+        assertThat(sink.messages.size(), is(0));
+        group.flush();
+        assertThat(sink.messages.toString(), is("[B2, A3, B4, A6, B6]"));
+    }
+
+    @Test
+    public void fullChunkIsDecodedWithoutFlush() {
+        group.add(new PeriodicDecoder("A", 1));
+        for (int i = 0; i < 7; i++) {
+            group.parse(100, true);
+        }
+        assertThat(sink.messages.size(), is(7));
+    }
+}
@@ -23,6 +23,7 @@ import nu.nethome.util.ps.ProtocolDecoder;
 import nu.nethome.util.ps.ProtocolDecoderSink;
 import nu.nethome.util.ps.ProtocolInfo;
 import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.StartPulse;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -60,6 +61,29 @@ public class ProtocolDecoderGroupTest {
         }
     }
 
+    /**
+     * Declares a space of 900 - 1100 uS as start pulse and stays busy for a number of pulses after it
+     */
+    class FilteredTestDecoder extends TestDecoder {
+        public int pulsesLeft = 0;
+
+        @Override
+        public int parse(double pulseLength, boolean state) {
+            calls++;
+            if (pulsesLeft > 0) {
+                pulsesLeft--;
+            } else if (!state && pulseLength >= 900 && pulseLength <= 1100) {
+                pulsesLeft = 2;
+            }
+            return pulsesLeft > 0 ? 1 : 0;
+        }
+
+        @Override
+        public ProtocolInfo getInfo() {
+            return new ProtocolInfo("Filtered", "Space Length", "Test", 8, 1).addStartPulse(new StartPulse(900, 1100, false));
+        }
+    }
+
     class TestProtocolDecoderSink implements ProtocolDecoderSink {
         public void parsedMessage(ProtocolMessage message) {
             //To change body of implemented methods use File | Settings | File Templates.
@@ -193,4 +217,58 @@ public class ProtocolDecoderGroupTest {
         assertThat(list.contains(decoder2), is(true));
         assertThat(list.size(), is(2));
     }
+
+    @Test
+    public void addingDecoderTwiceParsesOnce() throws Exception {
+        assertThat(testSubject.add(decoder1), is(false));
+        testSubject.parse(1L, true);
+
+        assertThat(decoder1.calls, is(1));
+        assertThat(testSubject.getAllDecoders().size(), is(2));
+    }
+
+    @Test
+    public void canModifyGroupWhileParsing() throws Exception {
+        ProtocolDecoder selfRemoving = new TestDecoder() {
+            @Override
+            public int parse(double pulseLength, boolean state) {
+                testSubject.remove(this);
+                testSubject.add(decoder3);
+                return super.parse(pulseLength, state);
+            }
+        };
+        testSubject.add(selfRemoving);
+
+        testSubject.parse(1L, true);
+        assertThat(decoder3.calls, is(0));
+        testSubject.parse(1L, true);
+
+        assertThat(decoder1.calls, is(2));
+        assertThat(decoder3.calls, is(1));
+        assertThat(testSubject.getAllDecoders(), not(hasItem(selfRemoving)));
+    }
+
+    @Test
+    public void idleFilteredDecoderOnlyGetsStartPulses() throws Exception {
+        FilteredTestDecoder filtered = new FilteredTestDecoder();
+        testSubject.add(filtered);
+
+        // First pulse after a change reaches all decoders, since the state is unknown
+        testSubject.parse(500, false);
+        assertThat(filtered.calls, is(1));
+
+        testSubject.parse(500, false);
+        testSubject.parse(1000, true);
+        testSubject.parse(1200, false);
+        assertThat(filtered.calls, is(1));
+        assertThat(decoder1.calls, is(4));
+
+        // Start pulse, decoder is then busy for two more pulses and then idle again
+        testSubject.parse(1000, false);
+        testSubject.parse(500, true);
+        testSubject.parse(500, false);
+        testSubject.parse(500, true);
+        assertThat(filtered.calls, is(4));
+        assertThat(decoder1.calls, is(8));
+    }
 }
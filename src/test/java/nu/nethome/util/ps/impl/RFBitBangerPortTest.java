@@ -23,6 +23,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertThat;
@@ -148,6 +151,97 @@ public class RFBitBangerPortTest {
         assertThat(tempFile.length(), is(0L));
     }
 
+    @Test
+    public void playRepeatedOddMessageAlternatesMarkAndSpace() throws Exception {
+        port = new RFBitBangerPort(tempFile.getAbsolutePath());
+        int[] message = {0x11, 0x22, 0x33};
+        assertThat(port.playMessage(message, 3, 0), is(true));
+        assertThat(port.playMessage(message, 3, 0), is(true));
+        BufferedReader br = new BufferedReader(new FileReader(tempFile));
+        assertThat(readLong(br), is(0x01000011L));
+        assertThat(readLong(br), is(0x00000022L));
+        assertThat(readLong(br), is(0x01000033L));
+        assertThat(readLong(br), is(0x00000011L));
+        assertThat(readLong(br), is(0x01000022L));
+        assertThat(readLong(br), is(0x00000033L));
+        assertThat(readLong(br), is(0x01000011L));
+        assertThat(readLong(br), is(0x00000022L));
+        assertThat(readLong(br), is(0x01000033L));
+        assertThat(tempFile.length(), is(36L));
+    }
+
+    @Test
+    public void keepOpenWritesAllMessages() throws Exception {
+        port = new RFBitBangerPort(tempFile.getAbsolutePath());
+        port.setKeepOpen(true);
+        assertThat(port.playMessage(new int[]{0x11, 0x22}, 1, 0), is(true));
+        assertThat(port.playMessage(new int[]{0x33, 0x44}, 2, 0), is(true));
+        port.close();
+        BufferedReader br = new BufferedReader(new FileReader(tempFile));
+        assertThat(readLong(br), is(0x01000011L));
+        assertThat(readLong(br), is(0x00000022L));
+        assertThat(readLong(br), is(0x01000033L));
+        assertThat(readLong(br), is(0x00000044L));
+        assertThat(readLong(br), is(0x01000033L));
+        assertThat(readLong(br), is(0x00000044L));
+        assertThat(tempFile.length(), is(24L));
+    }
+
+    @Test
+    public void falseWhenFailToOpenDeviceInKeepOpenMode() throws Exception {
+        port = new RFBitBangerPort("/foo/fie");
+        port.setKeepOpen(true);
+        int[] message = {10, 20};
+        assertThat(port.playMessage(message, 1, 0), is(false));
+    }
+
+    @Test
+    public void reopensDeviceWhenWriteFailsInKeepOpenMode() throws Exception {
+        final List<FileChannel> opened = new ArrayList<FileChannel>();
+        port = new RFBitBangerPort(tempFile.getAbsolutePath()) {
+            @Override
+            FileChannel openDevice() throws IOException {
+                FileChannel channel = new FileOutputStream(tempFile, true).getChannel();
+                opened.add(channel);
+                return channel;
+            }
+        };
+        port.setKeepOpen(true);
+        assertThat(port.playMessage(new int[]{0x11, 0x22}, 1, 0), is(true));
+        // Simulate that the device was removed
+        opened.get(0).close();
+        assertThat(port.playMessage(new int[]{0x33, 0x44}, 1, 0), is(true));
+        port.close();
+        assertThat(opened.size(), is(2));
+        BufferedReader br = new BufferedReader(new FileReader(tempFile));
+        assertThat(readLong(br), is(0x01000011L));
+        assertThat(readLong(br), is(0x00000022L));
+        assertThat(readLong(br), is(0x01000033L));
+        assertThat(readLong(br), is(0x00000044L));
+        assertThat(tempFile.length(), is(16L));
+    }
+
+    @Test
+    public void falseWhenReopenFailsInKeepOpenMode() throws Exception {
+        final List<FileChannel> opened = new ArrayList<FileChannel>();
+        port = new RFBitBangerPort(tempFile.getAbsolutePath()) {
+            @Override
+            FileChannel openDevice() throws IOException {
+                if (!opened.isEmpty()) {
+                    throw new FileNotFoundException("Removed");
+                }
+                FileChannel channel = new FileOutputStream(tempFile).getChannel();
+                opened.add(channel);
+                return channel;
+            }
+        };
+        port.setKeepOpen(true);
+        assertThat(port.playMessage(new int[]{0x11, 0x22}, 1, 0), is(true));
+        opened.get(0).close();
+        assertThat(port.playMessage(new int[]{0x33, 0x44}, 1, 0), is(false));
+        assertThat(tempFile.length(), is(8L));
+    }
+
     private long readLong(BufferedReader br) throws IOException {
         long result = br.read();
         result |= (br.read() << 8);
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolMessage;
+import nu.nethome.util.ps.RawProtocolMessage;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RawDecoderTest {
+
+    private static class MessageSink implements ProtocolDecoderSink {
+        List<RawProtocolMessage> messages = new ArrayList<RawProtocolMessage>();
+
+        public void parsedMessage(ProtocolMessage message) {
+            messages.add((RawProtocolMessage) message);
+        }
+
+        public void partiallyParsedMessage(String protocol, int bits) {
+        }
+
+        public void reportLevel(int level) {
+        }
+    }
+
+    private RawDecoder decoder;
+    private MessageSink sink;
+    private int nextSample = 0;
+
+    @Before
+    public void setUp() throws Exception {
+        decoder = new RawDecoder();
+        sink = new MessageSink();
+        decoder.setTarget(sink);
+        decoder.setSampleRate(1000);
+    }
+
+    private void addSamples(int count) {
+        int samples[] = new int[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = nextSample++;
+        }
+        decoder.addSamples(samples, 0, count);
+    }
+
+    private void sendMessage() {
+        decoder.parse(500, false);
+        addSamples(10);
+        decoder.parse(500, true);
+        addSamples(10);
+        decoder.parse(500, false);
+        addSamples(5);
+        decoder.parse(500, true);
+        addSamples(5);
+        decoder.parse(500, false);
+        addSamples(20);
+        decoder.parse(30000, false);
+    }
+
+    @Test
+    public void reportsTrimmedMessage() {
+        sendMessage();
+        assertThat(sink.messages.size(), is(1));
+        RawProtocolMessage message = sink.messages.get(0);
+        assertThat(message.m_PulseList, is(Arrays.asList(0, 10, 20, 25, 30)));
+        assertThat(message.m_PulseLengths.size(), is(5));
+        assertThat(message.m_PulseLengths.getFirst(), is(500.0));
+        assertThat(message.m_Samples.size(), is(31));
+        assertThat(message.m_Samples.get(30), is(30));
+        assertThat(message.m_SampleFrequency, is(1000));
+        assertThat(message.getSamples().length(), is(31));
+        assertThat(message.getSamples().window(10, 20).get(0), is((short) 10));
+    }
+
+    @Test
+    public void messagesDoNotShareCaptureBuffer() {
+        sendMessage();
+        sendMessage();
+        assertThat(sink.messages.size(), is(2));
+        assertThat(sink.messages.get(0).m_Samples.get(0), is(0));
+        assertThat(sink.messages.get(1).m_Samples.get(0), is(50));
+    }
+
+    @Test
+    public void includesPreTriggerSamples() {
+        decoder.setPreTriggerTime(10);
+        addSamples(35);
+        sendMessage();
+        RawProtocolMessage message = sink.messages.get(0);
+        assertThat(message.m_PulseList, is(Arrays.asList(10, 20, 30, 35, 40)));
+        assertThat(message.m_Samples.size(), is(41));
+        assertThat(message.m_Samples.get(0), is(25));
+        assertThat(message.m_Samples.get(40), is(65));
+    }
+
+    @Test
+    public void preTriggerWithShortHistory() {
+        decoder.setPreTriggerTime(10);
+        addSamples(3);
+        sendMessage();
+        RawProtocolMessage message = sink.messages.get(0);
+        assertThat(message.m_PulseList.get(0), is(3));
+        assertThat(message.m_Samples.get(0), is(0));
+        assertThat(message.m_Samples.size(), is(34));
+    }
+
+    @Test
+    public void freeSamplingReportsAllSamples() {
+        decoder.startFreeSampling(100);
+        addSamples(150);
+        assertThat(sink.messages.size(), is(1));
+        assertThat(sink.messages.get(0).m_Samples.size(), is(100));
+        assertThat(sink.messages.get(0).m_Samples.get(99), is(99));
+    }
+
+    @Test
+    public void messageCanBeSerialized() throws Exception {
+        sendMessage();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(sink.messages.get(0));
+        out.close();
+        RawProtocolMessage copy = (RawProtocolMessage) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertThat(copy.m_Samples, is(sink.messages.get(0).m_Samples));
+        assertThat(copy.m_PulseList, is(sink.messages.get(0).m_PulseList));
+    }
+}
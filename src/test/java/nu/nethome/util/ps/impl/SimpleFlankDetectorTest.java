@@ -111,6 +111,25 @@ public class SimpleFlankDetectorTest {
 		assertEquals((Double)700.0, decoder.pulses.get(3));
 	}
 
+	/**
+	 * Test method for {@link SimpleFlankDetector#addSamples(int[], int, int)}.
+	 */
+	@Test
+	public void testFindSimpleFlankInBlock() {
+		int block[] = new int[testDataSimple.length + 2];
+		System.arraycopy(testDataSimple, 0, block, 1, testDataSimple.length);
+
+		// Parse test data as one block, skipping the padding
+		testItem.addSamples(block, 1, testDataSimple.length);
+
+		// Verify result
+		assertEquals(4, decoder.pulses.size());
+		assertEquals((Double)400.0, decoder.pulses.get(0));
+		assertEquals((Double)500.0, decoder.pulses.get(1));
+		assertEquals((Double)600.0, decoder.pulses.get(2));
+		assertEquals((Double)700.0, decoder.pulses.get(3));
+	}
+
 	/**
 	 * Test method for {@link SimpleFlankDetector#setSampleRate(int)}.
 	 */
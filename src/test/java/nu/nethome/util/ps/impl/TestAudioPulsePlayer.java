@@ -24,7 +24,12 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import nu.nethome.util.ps.PulseSequence;
 import javax.sound.sampled.Mixer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Date;
 
 import static org.junit.Assert.*;
@@ -130,6 +135,120 @@ public class TestAudioPulsePlayer {
 		m_Player.closeLine();
 	}
 	
+	@Test
+	public void testRenderData() throws IOException {
+		final int message[] = {250, 500, 500};
+		final byte expectedResult[] =
+		{0, 0, -2, -2, -4, -4, -6, -6, -8, -8, 10, 10, 10, 10, -10, -10, -10, -10,
+				-10, -10, -10, -10, 10, 10, 10, 10, 10, 10, 10, 10};
+		m_Player.setSwing(10);
+		m_Player.setSampleRate(8000.0F);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		m_Player.render(new PulseSequence(new int[0], message, 1), out);
+		assertArrayEquals(expectedResult, out.toByteArray());
+	}
+
+	@Test
+	public void testRenderLongRepeatedMessage() throws IOException {
+		// 2 * 100 * 10000 us at 38000 Hz is 76000 stereo frames, which did not fit in the old fixed buffer
+		final int repeated[] = {10000, 10000};
+		m_Player.setSwing(10);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		m_Player.render(new PulseSequence(new int[0], repeated, 100), out);
+		byte result[] = out.toByteArray();
+		assertEquals(5 * 2 + 76000 * 2, result.length);
+		assertEquals(10, result[10]);
+		assertEquals(-10, result[10 + 380 * 2]);
+		assertEquals(-10, result[result.length - 1]);
+	}
+
+	@Test
+	public void testRenderToByteBuffer() throws IOException {
+		final int repeated[] = {300, 1100, 300, 10000};
+		PulseSequence sequence = new PulseSequence(new int[]{250}, repeated, 20);
+		m_Player.setSwing(-100);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		m_Player.render(sequence, out);
+		byte expected[] = out.toByteArray();
+		ByteBuffer heap = ByteBuffer.allocate(expected.length);
+		ByteBuffer direct = ByteBuffer.allocateDirect(expected.length + 10);
+		assertTrue(m_Player.render(sequence, heap));
+		assertTrue(m_Player.render(sequence, direct));
+		assertEquals(expected.length, direct.position());
+		byte result[] = new byte[expected.length];
+		direct.flip();
+		direct.get(result);
+		assertArrayEquals(expected, heap.array());
+		assertArrayEquals(expected, result);
+	}
+
+	@Test
+	public void testRenderToSmallByteBuffer() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(101);
+		assertFalse(m_Player.render(new PulseSequence(new int[0], new int[]{10000}, 1), buffer));
+		assertEquals(100, buffer.position());
+	}
+
+	@Test
+	public void testCarryRemainderBoundsTimingError() throws IOException {
+		// 250 us is 9.5 samples at 38 kHz, truncation loses half a sample on every pulse
+		final int repeated[] = {250, 250};
+		PulseSequence sequence = new PulseSequence(new int[0], repeated, 50);
+		ByteArrayOutputStream truncated = new ByteArrayOutputStream();
+		m_Player.render(sequence, truncated);
+		m_Player.setCarryRemainder(true);
+		ByteArrayOutputStream carried = new ByteArrayOutputStream();
+		m_Player.render(sequence, carried);
+		PulseRenderer renderer = m_Player.createRenderer();
+		renderer.start(sequence);
+		while (renderer.render(ByteBuffer.allocate(4096)) > 0) {
+			// Render everything to collect the statistics
+		}
+		assertEquals((25 + 900) * 2, truncated.size());
+		assertEquals((25 + 950) * 2, carried.size());
+		assertTrue(renderer.getMaxTimingError() <= 1000000.0 / 38000 / 2 + 0.001);
+		assertTrue(renderer.getAverageTimingError() <= renderer.getMaxTimingError());
+		renderer.setCarryRemainder(false);
+		renderer.start(sequence);
+		while (renderer.render(ByteBuffer.allocate(4096)) > 0) {
+			// Render everything to collect the statistics
+		}
+		assertTrue(renderer.getMaxTimingError() > 1000);
+	}
+
+	@Test
+	public void testOversampledFlanks() throws IOException {
+		// 200 us is 1.6 samples at 8 kHz, with 4 times oversampling the flank lands in the middle of a sample
+		m_Player.setSampleRate(8000.0F);
+		m_Player.setSwing(10);
+		m_Player.setOversampling(4);
+		PulseRenderer renderer = m_Player.createRenderer();
+		renderer.start(new PulseSequence(new int[0], new int[]{200, 200}, 1));
+		byte result[] = new byte[100];
+		int length = renderer.render(result, 0, result.length);
+		final byte expectedResult[] = {0, 0, -2, -2, -4, -4, -6, -6, -8, -8, 10, 10, 0, 0, -10, -10, -10, -10};
+		assertArrayEquals(expectedResult, Arrays.copyOf(result, length));
+		assertEquals(12.5, renderer.getMaxTimingError(), 0.001);
+		assertEquals((12.5 + 6.25) / 2, renderer.getAverageTimingError(), 0.001);
+	}
+
+	@Test
+	public void testRenderInSmallParts() {
+		final int message[] = {250, 500, 500};
+		PulseRenderer renderer = new PulseRenderer(8000.0F, 10);
+		renderer.start(new PulseSequence(new int[0], message, 1));
+		byte result[] = new byte[30];
+		int position = 0;
+		int length;
+		while ((length = renderer.render(result, position, Math.min(3, result.length - position))) > 0) {
+			assertEquals(2, length);
+			position += length;
+		}
+		assertEquals(30, position);
+		assertTrue(renderer.isFinished());
+		assertEquals(10, result[29]);
+	}
+
 	@Ignore
 	public void testPlayTime() {
 		// Message that should take 50mS to play
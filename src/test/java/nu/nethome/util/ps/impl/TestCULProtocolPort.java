@@ -19,11 +19,19 @@
 
 package nu.nethome.util.ps.impl;
 
+import nu.nethome.util.ps.ProtocolDecoder;
+import nu.nethome.util.ps.ProtocolDecoderSink;
+import nu.nethome.util.ps.ProtocolInfo;
 import nu.nethome.util.ps.impl.util.MocCULProtocolPort;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.assertEquals;
 
 /**
@@ -35,15 +43,31 @@ public class TestCULProtocolPort {
 
 	private MocCULProtocolPort m_Port;
 	private ProtocolDecoderGroup m_FakeDecoder; 
+	private List<String> m_Pulses;
 
 	@Before
 	public void setUp() throws Exception {
 		m_FakeDecoder = new ProtocolDecoderGroup();
 		m_Port = new MocCULProtocolPort(m_FakeDecoder);
+		m_Pulses = new ArrayList<String>();
+		m_FakeDecoder.add(new ProtocolDecoder() {
+			public int parse(double pulseLength, boolean state) {
+				m_Pulses.add((state ? "m" : "s") + (int) pulseLength);
+				return 0;
+			}
+
+			public ProtocolInfo getInfo() {
+				return null;
+			}
+
+			public void setTarget(ProtocolDecoderSink sink) {
+			}
+		});
 	}
 
 	@After
 	public void tearDown() throws Exception {
+		m_Port.stopReceiveQueue();
 		m_Port = null;
 	}
 
@@ -91,4 +115,129 @@ public class TestCULProtocolPort {
 		assertEquals(0x00, m_Port.m_Registers[MocCULProtocolPort.AGCCTRL1]);
 		assertEquals(0x92, m_Port.m_Registers[MocCULProtocolPort.AGCCTRL0]);
 	}
+
+	@Test
+	public void testReceivePulses() {
+		m_Port.receiveData("m0177\r\ns0465\r\nm01aF\r\n");
+		assertEquals("[m375, s1125, m431]", m_Pulses.toString());
+	}
+
+	@Test
+	public void testReceivePulsesSplitOverReads() {
+		m_Port.receiveData("m01");
+		m_Port.receiveData("77\r");
+		m_Port.receiveData("\ns0465\r\n");
+		assertEquals("[m375, s1125]", m_Pulses.toString());
+	}
+
+	@Test
+	public void testIgnoreBadLines() {
+		m_Port.receiveData("m0G77\r\nx0177\r\nm017\r\no\r\n\r\nm0177\r\n");
+		assertEquals("[m375]", m_Pulses.toString());
+	}
+
+	@Test
+	public void testDiscardOverflowingLine() {
+		m_Port.receiveData("m000000000000000000000000000000000000000000000000177\r\ns0465\r\n");
+		assertEquals("[s1125]", m_Pulses.toString());
+	}
+
+	@Test
+	public void testReceiveViaQueue() throws Exception {
+		m_Port.setReceiveQueueSize(1024);
+		m_Port.startReceiveQueue();
+		m_Port.receiveQueuedData("m0177\r\ns0465\r\n");
+		m_Port.receiveQueuedData("m01aF\r\n");
+		m_Port.stopReceiveQueue();
+		assertEquals("[m375, s1125, m431]", m_Pulses.toString());
+		assertEquals(0, m_Port.getOverrunCount());
+	}
+
+	@Test
+	public void testSmallQueueHoldsWholeReads() throws Exception {
+		m_Port.setReceiveQueueSize(8);
+		m_Port.startReceiveQueue();
+		m_Port.receiveQueuedData("m0177\r\ns0465\r\nm01aF\r\n");
+		m_Port.stopReceiveQueue();
+		assertEquals("[m375, s1125, m431]", m_Pulses.toString());
+		assertEquals(0, m_Port.getOverrunCount());
+	}
+
+	@Test
+	public void testDropDataWhenQueueIsFull() throws Exception {
+		final CountDownLatch decoding = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		m_FakeDecoder.add(new ProtocolDecoder() {
+			public int parse(double pulseLength, boolean state) {
+				decoding.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					// Just continue
+				}
+				return 0;
+			}
+
+			public ProtocolInfo getInfo() {
+				return null;
+			}
+
+			public void setTarget(ProtocolDecoderSink sink) {
+			}
+		});
+		m_Port.setReceiveQueueSize(1024);
+		m_Port.startReceiveQueue();
+		m_Port.receiveQueuedData("m0177\r\n");
+		decoding.await(1, TimeUnit.SECONDS);
+		// The decoder is blocked, so the queue fills up. The data is read 400 bytes at a time
+		// and the third read does not fit in the 1024 byte queue.
+		StringBuilder data = new StringBuilder();
+		while (data.length() < 1204) {
+			data.append("m0177\r\n");
+		}
+		m_Port.receiveQueuedData(data.toString());
+		release.countDown();
+		assertEquals(1, m_Port.getOverrunCount());
+		assertEquals(400, m_Port.getDroppedByteCount());
+	}
+
+	@Test
+	public void testPlayMessage() {
+		m_Port.playMessage(new int[] {375, 1125, 0x1ABCD, 10000, 375}, 5, 0);
+		assertEquals("[E, A01770465, A1ABCD2710, A01770000, S05]", m_Port.m_Commands.toString());
+	}
+
+	@Test
+	public void testPlayModulatedMessage() {
+		m_Port.setModulationOnPeriod(0x12);
+		m_Port.setModulationOffPeriod(0x0E);
+		m_Port.playMessage(new int[] {375, 1125}, 0x1F, 2);
+		assertEquals("[E, A01770465, S1F120E02]", m_Port.m_Commands.toString());
+	}
+
+	@Test
+	public void testPlayMessageWaitsForAcknowledge() throws Exception {
+		m_Port.setAcknowledgeTimeout(5000);
+		final boolean result[] = new boolean[1];
+		Thread sender = new Thread() {
+			public void run() {
+				result[0] = m_Port.playMessage(new int[] {375, 1125}, 5, 0);
+			}
+		};
+		sender.start();
+		while (m_Port.m_Commands.size() < 3) {
+			Thread.sleep(1);
+		}
+		m_Port.receiveData("o\r\n");
+		sender.join(5000);
+		assertEquals(true, result[0]);
+		assertEquals(0, m_Port.getAcknowledgeTimeouts());
+	}
+
+	@Test
+	public void testPlayMessageFailsWithoutAcknowledge() {
+		m_Port.setAcknowledgeTimeout(10);
+		assertEquals(false, m_Port.playMessage(new int[] {375, 1125}, 5, 0));
+		assertEquals(1, m_Port.getAcknowledgeTimeouts());
+	}
 }
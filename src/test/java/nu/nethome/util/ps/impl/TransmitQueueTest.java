@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2005-2013, Stefan Strömberg <stefangs@nethome.nu>
+ *
+ * This file is part of OpenNetHome (http://www.nethome.nu).
+ *
+ * OpenNetHome is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * OpenNetHome is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package nu.nethome.util.ps.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class TransmitQueueTest {
+
+    /**
+     * Records the first pulse of each message, and waits for a latch before sending the first message
+     */
+    class TestTransmitter implements PulseTransmitter {
+        final List<Integer> sent = new ArrayList<Integer>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        public boolean playMessage(int[] message, int repeat, int repeatOffset) {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                return false;
+            }
+            synchronized (sent) {
+                sent.add(message[0]);
+            }
+            return message[0] >= 0;
+        }
+    }
+
+    private TestTransmitter transmitter;
+    private TransmitQueue queue;
+
+    @Before
+    public void setUp() throws Exception {
+        transmitter = new TestTransmitter();
+        queue = new TransmitQueue(transmitter, 3);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        transmitter.release.countDown();
+        queue.closeAndWait(1000);
+    }
+
+    private void blockTransmitter() throws Exception {
+        queue.submit(new int[]{0}, 1, 0);
+        transmitter.started.await(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void futureGivesResult() throws Exception {
+        transmitter.release.countDown();
+        assertThat(queue.submit(new int[]{1}, 1, 0).get(1, TimeUnit.SECONDS), is(true));
+        assertThat(queue.submit(new int[]{-1}, 1, 0).get(1, TimeUnit.SECONDS), is(false));
+        assertThat(queue.getSentCount(), is(1L));
+        assertThat(queue.getFailedCount(), is(1L));
+    }
+
+    @Test
+    public void sendsInPriorityOrder() throws Exception {
+        blockTransmitter();
+        queue.submit(new int[]{1}, 1, 0, 0);
+        queue.submit(new int[]{2}, 1, 0, 5);
+        Future<Boolean> last = queue.submit(new int[]{3}, 1, 0, 0);
+        transmitter.release.countDown();
+        last.get(1, TimeUnit.SECONDS);
+        assertThat(transmitter.sent.toString(), is("[0, 2, 1, 3]"));
+    }
+
+    @Test
+    public void coalescesIdenticalMessages() throws Exception {
+        blockTransmitter();
+        Future<Boolean> first = queue.submit(new int[]{1, 2}, 3, 0);
+        Future<Boolean> second = queue.submit(new int[]{1, 2}, 3, 0);
+        queue.submit(new int[]{1, 2}, 4, 0);
+        assertThat(queue.getQueueSize(), is(2));
+        assertThat(queue.getCoalescedCount(), is(1L));
+        transmitter.release.countDown();
+        assertThat(first.get(1, TimeUnit.SECONDS), is(true));
+        assertThat(second.get(1, TimeUnit.SECONDS), is(true));
+        assertThat(queue.closeAndWait(1000), is(true));
+        assertThat(transmitter.sent.toString(), is("[0, 1, 1]"));
+    }
+
+    @Test
+    public void cancelledMessageIsNotReused() throws Exception {
+        blockTransmitter();
+        Future<Boolean> cancelled = queue.submit(new int[]{1}, 1, 0);
+        assertThat(cancelled.cancel(false), is(true));
+        assertThat(queue.getQueueSize(), is(0));
+        Future<Boolean> resubmitted = queue.submit(new int[]{1}, 1, 0);
+        assertThat(resubmitted.isCancelled(), is(false));
+        transmitter.release.countDown();
+        assertThat(resubmitted.get(1, TimeUnit.SECONDS), is(true));
+        assertThat(queue.getCoalescedCount(), is(0L));
+    }
+
+    @Test
+    public void cancellingOneCoalescedCallerKeepsOther() throws Exception {
+        blockTransmitter();
+        Future<Boolean> first = queue.submit(new int[]{1}, 1, 0);
+        Future<Boolean> second = queue.submit(new int[]{1}, 1, 0);
+        assertThat(first.cancel(false), is(true));
+        assertThat(first.isCancelled(), is(true));
+        assertThat(queue.getQueueSize(), is(1));
+        transmitter.release.countDown();
+        assertThat(second.get(1, TimeUnit.SECONDS), is(true));
+        assertThat(second.isCancelled(), is(false));
+        assertThat(queue.closeAndWait(1000), is(true));
+        assertThat(transmitter.sent.toString(), is("[0, 1]"));
+    }
+
+    @Test
+    public void offerRejectsWhenFull() throws Exception {
+        blockTransmitter();
+        queue.submit(new int[]{1}, 1, 0);
+        queue.submit(new int[]{2}, 1, 0);
+        queue.submit(new int[]{3}, 1, 0);
+        assertThat(queue.offer(new int[]{4}, 1, 0, 0), is(nullValue()));
+        assertThat(queue.getRejectedCount(), is(1L));
+        transmitter.release.countDown();
+        assertThat(queue.closeAndWait(1000), is(true));
+        assertThat(transmitter.sent.size(), is(4));
+    }
+}
@@ -19,12 +19,17 @@
 
 package nu.nethome.util.ps.impl.util;
 
+import gnu.io.SerialPort;
+import gnu.io.SerialPortEvent;
 import nu.nethome.util.ps.ProtocolDecoder;
 import nu.nethome.util.ps.impl.CULProtocolPort;
 
+import java.io.ByteArrayInputStream;
 import java.util.LinkedList;
 import java.util.List;
 
+import static org.mockito.Mockito.mock;
+
 /**
  * Simulates the serial port and part of the CUL-Stick for unit testing of CULProtocolPort
  * @author Stefan Str�mberg
@@ -103,4 +108,46 @@ public class MocCULProtocolPort extends CULProtocolPort {
 			m_Registers[address] = data;
 		}
 	}
+
+	/**
+	 * Override writeBytes method, split the data in lines and save them like writeLine
+	 * @see nu.nethome.util.ps.impl.CULProtocolPort#writeBytes(byte[], int)
+	 */
+	@Override
+	protected boolean writeBytes(byte[] data, int length) {
+		String text = new String(data, 0, length);
+		for (String line : text.split("\r\n")) {
+			m_Commands.add(line);
+		}
+		return true;
+	}
+
+	/**
+	 * Simulate data received from the CUL-Stick
+	 * @param data received characters
+	 */
+	public void receiveData(String data) {
+		byte bytes[] = data.getBytes();
+		processReceivedBytes(bytes, bytes.length);
+	}
+
+	/**
+	 * Simulate data received from the CUL-Stick when it is read via the receive queue.
+	 * The receive queue must be started, see startReceiveQueue.
+	 * @param data received characters
+	 */
+	public void receiveQueuedData(String data) {
+		m_InputStream = new ByteArrayInputStream(data.getBytes());
+		serialEvent(new SerialPortEvent(mock(SerialPort.class), SerialPortEvent.DATA_AVAILABLE, false, true));
+	}
+
+	@Override
+	public void startReceiveQueue() {
+		super.startReceiveQueue();
+	}
+
+	@Override
+	public void stopReceiveQueue() {
+		super.stopReceiveQueue();
+	}
 }